@@ -0,0 +1,72 @@
+package fxlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+/**
+ * Verification throughput of the checksum algorithms a manifest can choose. <code>heap</code>
+ * hashes a byte array in the 16 KB pieces the launcher reads files with, <code>mapped</code>
+ * hashes a memory mapped file like <code>--verify-mmap</code>. The result is the time per
+ * operation, so the throughput is the size divided by the score. crc32c needs Java 9 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumAlgorithmBenchmark {
+	@Param({"adler32", "crc32", "crc32c", "xxhash64", "sha256"})
+	public String algorithm;
+
+	@Param({"1048576", "67108864"})
+	public int size;
+
+	private ChecksumAlgorithm checksumAlgorithm;
+	private byte[] data;
+	private Path cacheDir;
+	private Path path;
+
+	@Setup
+	public void setup() throws IOException {
+		checksumAlgorithm = ChecksumAlgorithm.forName(algorithm);
+		data = new byte[size];
+		new Random(size).nextBytes(data);
+		cacheDir = Fixtures.createTempDir("algorithm");
+		path = Fixtures.writeRandomFile(cacheDir.resolve("lib/assets.jar"), size, size);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(cacheDir);
+	}
+
+	@Benchmark
+	public long heap() {
+		Checksum checksum = checksumAlgorithm.create();
+		for (int offset = 0; offset < data.length; offset += 16384)
+			checksum.update(data, offset, Math.min(16384, data.length - offset));
+		return checksum.getValue();
+	}
+
+	@Benchmark
+	public long mapped() throws IOException {
+		return LibraryFile.mappedChecksum(path, checksumAlgorithm).getValue();
+	}
+}
@@ -0,0 +1,67 @@
+package fxlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of a cached file, from a small jar to a large native bundle. The file stays in the
+ * page cache between invocations, so this measures the checksum rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+	@Param({"16384", "1048576", "16777216", "134217728"})
+	public long size;
+
+	private Path cacheDir;
+	private Path path;
+	private LibraryFile lib;
+
+	@Setup
+	public void setup() throws IOException {
+		cacheDir = Fixtures.createTempDir("checksum");
+		path = Fixtures.writeRandomFile(cacheDir.resolve("lib/dependency.jar"), size, size);
+		lib = new LibraryFile(cacheDir, path);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(cacheDir);
+	}
+
+	@Benchmark
+	public long checksum() throws IOException {
+		return LibraryFile.checksum(path, ChecksumAlgorithm.DEFAULT).getValue();
+	}
+
+	@Benchmark
+	public long mappedChecksum() throws IOException {
+		return LibraryFile.mappedChecksum(path, ChecksumAlgorithm.DEFAULT).getValue();
+	}
+
+	/**
+	 * The check of an up to date file without a checksum index: size, then the full checksum.
+	 */
+	@Benchmark
+	public boolean needsUpdate() {
+		return lib.needsUpdate(cacheDir);
+	}
+}
@@ -0,0 +1,137 @@
+package fxlauncher;
+
+import javafx.application.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the application class loader and looking up classes across many jars, with the
+ * plain URLClassLoader and with the <code>--class-index</code> class loader. Every invocation
+ * uses a new class loader, as a launch does, since loaded classes are cached by the loader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoaderBenchmark {
+	private static final int CLASSES_PER_JAR = 50;
+
+	@Param({"50", "200", "500"})
+	public int jars;
+
+	@Param({"url", "indexed"})
+	public String loader;
+
+	private Path cacheDir;
+	private AbstractLauncher<Object> launcher;
+
+	private static class BenchmarkLauncher extends AbstractLauncher<Object> {
+		private final LauncherParams parameters;
+
+		BenchmarkLauncher(String... args) {
+			parameters = new LauncherParams(Arrays.asList(args));
+		}
+
+		protected Application.Parameters getParameters() {
+			return parameters;
+		}
+
+		protected void updateProgress(double progress) {
+		}
+
+		protected void createApplication(Class<Object> appClass) {
+		}
+
+		protected void reportError(String title, Throwable error) {
+		}
+
+		protected void setupClassLoader(ClassLoader classLoader) {
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		cacheDir = Fixtures.createTempDir("classloader");
+		FXManifest manifest = new FXManifest();
+		manifest.ts = 1546000000000L;
+		manifest.uri = Fixtures.BASE_URI;
+		manifest.launchClass = "bench.App";
+		for (int i = 0; i < jars; i++) {
+			Path jar = Fixtures.writeJar(cacheDir.resolve(String.format("lib/jar-%d.jar", i)), i, CLASSES_PER_JAR);
+			manifest.files.add(new LibraryFile(cacheDir, jar));
+		}
+		AbstractLauncher.manifest = manifest;
+
+		launcher = "indexed".equals(loader) ? new BenchmarkLauncher("--class-index") : new BenchmarkLauncher();
+
+		// The index is built on the first launch of a version, later launches read it
+		close(launcher.createClassLoader(cacheDir));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		AbstractLauncher.manifest = null;
+		Fixtures.delete(cacheDir);
+	}
+
+	@Benchmark
+	public ClassLoader createClassLoader() throws IOException {
+		ClassLoader classLoader = launcher.createClassLoader(cacheDir);
+		close(classLoader);
+		return classLoader;
+	}
+
+	/**
+	 * Load one class from every jar, the last jar of the classpath being the most expensive to
+	 * reach without an index.
+	 */
+	@Benchmark
+	public int loadClasses() throws Exception {
+		ClassLoader classLoader = launcher.createClassLoader(cacheDir);
+		try {
+			int loaded = 0;
+			for (int i = 0; i < jars; i++)
+				loaded += classLoader.loadClass(Fixtures.className(i, i % CLASSES_PER_JAR)).getName().length();
+			return loaded;
+		} finally {
+			close(classLoader);
+		}
+	}
+
+	/**
+	 * A resource that no jar contains, which has to be probed in every jar without an index.
+	 */
+	@Benchmark
+	public int missingResources() throws IOException {
+		ClassLoader classLoader = launcher.createClassLoader(cacheDir);
+		try {
+			return Collections.list(classLoader.getResources("META-INF/services/bench.Missing")).size();
+		} finally {
+			close(classLoader);
+		}
+	}
+
+	private static void close(ClassLoader classLoader) throws IOException {
+		if (classLoader instanceof Closeable)
+			((Closeable) classLoader).close();
+	}
+}
@@ -0,0 +1,60 @@
+package fxlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the manifest for a build directory: walking the tree and checksumming every jar.
+ * File sizes follow a typical dependency tree, mostly small jars and a few large ones, and the
+ * directory also holds files that are not part of the manifest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CreateManifestBenchmark {
+	@Param({"100", "1000", "5000"})
+	public int files;
+
+	private Path appPath;
+
+	@Setup
+	public void setup() throws IOException {
+		appPath = Fixtures.createTempDir("create-manifest");
+		Random random = new Random(files);
+		for (int i = 0; i < files; i++) {
+			long size = i % 100 == 0 ? 8 * 1024 * 1024 : 4096 + random.nextInt(256 * 1024);
+			Fixtures.writeRandomFile(appPath.resolve(String.format("lib/group-%d/dependency-%d.jar", i % 50, i)), size, i);
+			if (i % 10 == 0)
+				Fixtures.writeRandomFile(appPath.resolve(String.format("lib/group-%d/dependency-%d.pom", i % 50, i)), 2048, i);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(appPath);
+	}
+
+	@Benchmark
+	public FXManifest create() throws IOException, URISyntaxException {
+		return CreateManifest.create(Fixtures.BASE_URI, "com.example.App", appPath);
+	}
+}
@@ -0,0 +1,151 @@
+package fxlauncher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generated files, jars and manifests for the benchmarks. The content is random but seeded,
+ * so every run measures the same input.
+ */
+class Fixtures {
+	static final URI BASE_URI = URI.create("https://example.com/app/");
+
+	private Fixtures() {
+	}
+
+	static Path createTempDir(String name) throws IOException {
+		return Files.createTempDirectory("fxlauncher-" + name);
+	}
+
+	static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir))
+			return;
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Write a file of random bytes, which does not compress and gives the checksum no shortcuts.
+	 */
+	static Path writeRandomFile(Path file, long size, long seed) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Random random = new Random(seed);
+		byte[] buf = new byte[65536];
+		try (OutputStream output = Files.newOutputStream(file)) {
+			for (long written = 0; written < size; written += buf.length) {
+				random.nextBytes(buf);
+				output.write(buf, 0, (int) Math.min(buf.length, size - written));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * A manifest like CreateManifest would produce for an application with the given number of
+	 * files. A few files are platform specific and some have a compressed variant and a patch.
+	 */
+	static FXManifest createManifest(int files) {
+		Random random = new Random(files);
+		FXManifest manifest = new FXManifest();
+		manifest.ts = 1546000000000L;
+		manifest.uri = BASE_URI;
+		manifest.launchClass = "com.example.App";
+		for (int i = 0; i < files; i++) {
+			LibraryFile lib = new LibraryFile();
+			lib.size = 1024L + random.nextInt(4 * 1024 * 1024);
+			lib.checksum = random.nextLong() & 0xffffffffL;
+			if (i % 20 == 0) {
+				lib.os = OS.values()[i / 20 % OS.values().length];
+				lib.file = String.format("native/library-%d-%s.jar", i, lib.os);
+			} else {
+				lib.file = String.format("lib/dependency-%d-1.0.%d.jar", i, i % 10);
+			}
+			if (i % 3 == 0) {
+				lib.compression = "gzip";
+				lib.compressedSize = lib.size / 2;
+			}
+			if (i % 7 == 0) {
+				long from = random.nextLong() & 0xffffffffL;
+				String patch = String.format("patches/%s.%d.patch", lib.file.replace('/', '_'), from);
+				lib.patches = new ArrayList<>();
+				lib.patches.add(new LibraryPatch(patch, from, lib.size / 10));
+			}
+			manifest.files.add(lib);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Write a jar with empty classes in its own package, <code>bench.p&lt;jar&gt;.C&lt;class&gt;</code>,
+	 * and the same number of resources.
+	 */
+	static Path writeJar(Path file, int jar, int classes) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(file))) {
+			for (int i = 0; i < classes; i++) {
+				String name = className(jar, i).replace('.', '/');
+				output.putNextEntry(new JarEntry(name + ".class"));
+				output.write(classBytes(name));
+				output.closeEntry();
+				output.putNextEntry(new JarEntry(String.format("bench/p%d/resource-%d.properties", jar, i)));
+				output.write(String.format("key=%d%n", i).getBytes("UTF-8"));
+				output.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	static String className(int jar, int index) {
+		return String.format("bench.p%d.C%d", jar, index);
+	}
+
+	/**
+	 * The smallest valid class file: a public class extending Object without members.
+	 */
+	private static byte[] classBytes(String internalName) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(0xcafebabe);
+		output.writeShort(0);
+		output.writeShort(52);
+		output.writeShort(5);
+		output.writeByte(7);
+		output.writeShort(2);
+		output.writeByte(1);
+		output.writeUTF(internalName);
+		output.writeByte(7);
+		output.writeShort(4);
+		output.writeByte(1);
+		output.writeUTF("java/lang/Object");
+		output.writeShort(0x0021);
+		output.writeShort(1);
+		output.writeShort(3);
+		output.writeShort(0);
+		output.writeShort(0);
+		output.writeShort(0);
+		output.writeShort(0);
+		output.flush();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,89 @@
+package fxlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXB;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing the manifest. The launcher parses it with {@link ManifestXml} on every
+ * start, CreateManifest writes it with JAXB, and the JAXB variants are kept to compare both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	public int entries;
+
+	private Path dir;
+	private URI uri;
+	private FXManifest manifest;
+	private byte[] xml;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Fixtures.createTempDir("manifest");
+		manifest = Fixtures.createManifest(entries);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ManifestXml.write(manifest, output);
+		xml = output.toByteArray();
+		Path path = dir.resolve("app.xml");
+		Files.write(path, xml);
+		uri = path.toUri();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(dir);
+	}
+
+	@Benchmark
+	public FXManifest load() throws IOException {
+		return FXManifest.load(uri);
+	}
+
+	@Benchmark
+	public FXManifest read() throws IOException {
+		return ManifestXml.read(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(xml.length);
+		ManifestXml.write(manifest, output);
+		return output.size();
+	}
+
+	@Benchmark
+	public FXManifest jaxbUnmarshal() {
+		return JAXB.unmarshal(new ByteArrayInputStream(xml), FXManifest.class);
+	}
+
+	@Benchmark
+	public int jaxbMarshal() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(xml.length);
+		JAXB.marshal(manifest, output);
+		return output.size();
+	}
+}
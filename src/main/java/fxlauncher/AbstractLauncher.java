@@ -3,25 +3,25 @@ package fxlauncher;
 import javafx.application.Application;
 
 import javax.net.ssl.*;
-import javax.xml.bind.JAXB;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Base64;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,7 +35,13 @@ public abstract class AbstractLauncher<APP> {
 	private static final Logger log = Logger.getLogger("AbstractLauncher");
 
 	protected static FXManifest manifest;
+	private FXManifest previousManifest;
+	private Transport transport;
+	private ManifestSnapshot snapshot;
+	private boolean manifestChanged;
+	private boolean backgroundUpdate;
 	private String phase;
+	private final LaunchReport report = new LaunchReport();
 
 	/**
 	 * Make java.util.logger log to a file. Default it will log to
@@ -68,7 +74,8 @@ public abstract class AbstractLauncher<APP> {
 	}
 
 	protected ClassLoader createClassLoader(Path cacheDir) {
-		List<URL> libs = manifest.files.stream().filter(LibraryFile::loadForCurrentPlatform)
+		List<URL> libs = snapshot != null && snapshot.manifest == manifest ? snapshot.getClasspath(cacheDir)
+				: manifest.files.stream().filter(LibraryFile::loadForCurrentPlatform)
 				.map(it -> it.toURL(cacheDir)).collect(Collectors.toList());
 
 		ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
@@ -76,7 +83,8 @@ public abstract class AbstractLauncher<APP> {
 			((FxlauncherClassCloader) systemClassLoader).addUrls(libs);
 			return systemClassLoader;
 		} else {
-			ClassLoader classLoader = new URLClassLoader(libs.toArray(new URL[libs.size()]));
+			ClassLoader classLoader = getParameters().getUnnamed().contains("--class-index")
+					? createIndexedClassLoader(cacheDir, libs) : new URLClassLoader(libs.toArray(new URL[libs.size()]));
 			Thread.currentThread().setContextClassLoader(classLoader);
 
 			setupClassLoader(classLoader);
@@ -85,8 +93,26 @@ public abstract class AbstractLauncher<APP> {
 		}
 	}
 
+	/**
+	 * Create a class loader that finds classes through an index of the packages in each jar,
+	 * stored in the cache dir for the current version.
+	 */
+	private ClassLoader createIndexedClassLoader(Path cacheDir, List<URL> libs) {
+		List<Path> classpath = new ArrayList<>(libs.size());
+		for (URL lib : libs) {
+			try {
+				classpath.add(Paths.get(lib.toURI()));
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+		Path indexFile = cacheDir.resolve(String.format("%s.classindex", manifest.launchClass));
+		ClassIndex index = ClassIndex.load(indexFile, manifest.ts, classpath);
+		return new IndexedClassLoader(libs, index, ClassLoader.getSystemClassLoader());
+	}
+
 	protected void updateManifest() throws Exception {
-		phase = Constants.getString("Application.Phase.Update");
+		setPhase(Constants.getString("Application.Phase.Update"));
 		syncManifest();
 	}
 
@@ -104,63 +130,184 @@ public abstract class AbstractLauncher<APP> {
 		Path cacheDir = manifest.resolveCacheDir(getParameters().getNamed());
 		log.info(() -> String.format(Constants.getString("Application.log.Sycnfiles"), cacheDir));
 
-		phase = Constants.getString("Application.Phase.Syncfile");
+		setPhase(Constants.getString("Application.Phase.Syncfile"));
 
 		if (getParameters().getUnnamed().contains("--offline")) {
 			log.info(Constants.getString("Application.log.offline"));
 			return false; // to signal that nothing has changed.
 		}
-		List<LibraryFile> needsUpdate = manifest.files.stream().filter(LibraryFile::loadForCurrentPlatform)
-				.filter(it -> it.needsUpdate(cacheDir)).collect(Collectors.toList());
+		manifest.checkChecksumAlgorithms();
+		StagingArea staging = new StagingArea(cacheDir);
+		ChecksumIndex index = ChecksumIndex.load(cacheDir);
+		boolean verify = getParameters().getUnnamed().contains("--verify-cache");
+		// Only launchers that write to the cache dir take the lock, an up to date cache is read without it
+		CacheLock lock = staging.isActivationInterrupted() ? CacheLock.acquire(cacheDir) : null;
+		try {
+			staging.recover();
+			List<LibraryFile> files = manifest.files.stream().filter(this::shouldSync)
+					.collect(Collectors.toList());
+			CacheVerifier verifier = new CacheVerifier(cacheDir, index, getVerifyThreads(),
+					getParameters().getUnnamed().contains("--verify-mmap"), report);
+			List<LibraryFile> needsUpdate = verifier.findOutdated(files, verify);
+
+			if (lock == null && (!needsUpdate.isEmpty() || manifestChanged)) {
+				lock = CacheLock.acquire(cacheDir);
+				// Another launcher may have updated the cache dir while we waited, keep what it downloaded
+				staging.recover();
+				needsUpdate = verifier.findOutdated(needsUpdate, false);
+			}
 
-		if (needsUpdate.isEmpty())
-			return false;
+			Path storeDir = manifest.resolveContentStore(getParameters().getNamed(), cacheDir);
+			ContentStore store = storeDir != null ? new ContentStore(storeDir) : null;
+			if (store != null) {
+				// Make verified files available to other paths and applications sharing the store
+				for (LibraryFile lib : files)
+					if (!needsUpdate.contains(lib))
+						store.add(lib, cacheDir.resolve(lib.file));
+			}
 
-		Long totalBytes = needsUpdate.stream().mapToLong(f -> f.size).sum();
-		Long totalWritten = 0L;
+			if (needsUpdate.isEmpty()) {
+				if (manifestChanged)
+					staging.activate(manifest, needsUpdate);
+				manifestChanged = false;
+				return false;
+			}
 
-		for (LibraryFile lib : needsUpdate) {
-			Path target = cacheDir.resolve(lib.file).toAbsolutePath();
-			Files.createDirectories(target.getParent());
+			Mirrors mirrors = new Mirrors(manifest, cacheDir);
+			mirrors.probe(getTransport());
+			FileDownloader downloader = new FileDownloader(getTransport(), mirrors, cacheDir, index, store, staging,
+					getDownloadThreads(), checkIgnoreUpdateErrorSetting(), useLocalLinks(), this::updateProgress,
+					getRateLimiter("max-download-rate", manifest.maxDownloadRate), report);
+			try {
+				downloader.download(needsUpdate);
+			} catch (Exception e) {
+				revertToPreviousManifest(verifier);
+				throw e;
+			}
+			staging.activate(manifest, needsUpdate);
+			manifestChanged = false;
+			return true;
+		} finally {
+			try {
+				index.save();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Unable to save checksum index", e);
+			}
+			if (lock != null)
+				lock.close();
+		}
+	}
 
-			URI uri;
+	/**
+	 * The new version could not be staged completely. Fall back to the version that is
+	 * still intact in the cache dir, if any, so the application starts from a consistent
+	 * set of files.
+	 */
+	private void revertToPreviousManifest(CacheVerifier verifier) {
+		if (previousManifest == null)
+			return;
+		try {
+			List<LibraryFile> files = previousManifest.files.stream().filter(this::shouldSync)
+					.collect(Collectors.toList());
+			if (verifier.findOutdated(files, false).isEmpty()) {
+				log.warning(String.format("Update to version %s failed, launching version %s from the cache",
+						manifest.ts, previousManifest.ts));
+				manifest = previousManifest;
+				manifestChanged = false;
+			}
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Unable to verify the previous version", e);
+		}
+	}
 
-			// We avoid using uri.resolve() here so as to not break UNC paths. See issue
-			// #143
-			String separator = manifest.uri.getPath().endsWith("/") ? "" : "/";
-			uri = URI.create(manifest.uri.toString() + separator + lib.file);
+	/**
+	 * Whether <code>syncFiles</code> keeps the file up to date in the cache dir. Only the files
+	 * of the current platform are synced by default.
+	 */
+	protected boolean shouldSync(LibraryFile lib) {
+		return lib.loadForCurrentPlatform();
+	}
 
-			try (InputStream input = openDownloadStream(uri); OutputStream output = Files.newOutputStream(target)) {
+	/**
+	 * The transport used for the manifest and the files. It is shared with
+	 * {@link Launcher#checkForUpdate()}, so all requests to the repository reuse the
+	 * same connections. Timeouts are taken from the <code>--connect-timeout</code>
+	 * and <code>--read-timeout</code> command line parameters, in milliseconds.
+	 */
+	protected Transport getTransport() {
+		if (transport == null) {
+			Map<String, String> named = getParameters().getNamed();
+			int connectTimeout = named.containsKey("connect-timeout") ? Integer.parseInt(named.get("connect-timeout"))
+					: Transport.DEFAULT_CONNECT_TIMEOUT;
+			int readTimeout = named.containsKey("read-timeout") ? Integer.parseInt(named.get("read-timeout"))
+					: Transport.DEFAULT_READ_TIMEOUT;
+			transport = new Transport(connectTimeout, readTimeout);
+			Transport.setShared(transport);
+		}
+		return transport;
+	}
 
-				byte[] buf = new byte[65536];
+	/**
+	 * Files from a <code>file:</code> repository are hard linked into the cache dir instead of
+	 * copied when the <code>--link-local</code> parameter is given. The repository must not
+	 * change files in place, since the cache shares them.
+	 */
+	protected boolean useLocalLinks() {
+		return getParameters().getUnnamed().contains("--link-local");
+	}
 
-				int read;
-				while ((read = input.read(buf)) > -1) {
-					output.write(buf, 0, read);
-					totalWritten += read;
-					Double progress = totalWritten.doubleValue() / totalBytes.doubleValue();
-					updateProgress(progress);
-				}
-			}
-		}
-		return true;
+	/**
+	 * The number of concurrent downloads, taken from the
+	 * <code>--download-threads=n</code> command line parameter or the manifest.
+	 */
+	protected int getDownloadThreads() {
+		return getIntSetting("download-threads", manifest.downloadThreads, FileDownloader.DEFAULT_THREADS);
 	}
 
-	private InputStream openDownloadStream(URI uri) throws IOException {
-		if (uri.getScheme().equals("file"))
-			return Files.newInputStream(new File(uri.getPath()).toPath());
+	/**
+	 * The number of threads used to verify cached files, taken from the
+	 * <code>--verify-threads=n</code> command line parameter or the manifest.
+	 * Defaults to the number of available processors.
+	 */
+	protected int getVerifyThreads() {
+		return getIntSetting("verify-threads", manifest.verifyThreads, Runtime.getRuntime().availableProcessors());
+	}
 
-		URLConnection connection = uri.toURL().openConnection();
-		if (uri.getUserInfo() != null) {
-			byte[] payload = uri.getUserInfo().getBytes(StandardCharsets.UTF_8);
-			String encoded = Base64.getEncoder().encodeToString(payload);
-			connection.setRequestProperty("Authorization", String.format("Basic %s", encoded));
-		}
-		return connection.getInputStream();
+	/**
+	 * The limit shared by all concurrent downloads, taken from a named command line parameter
+	 * or the manifest, in bytes per second with an optional k, m or g suffix.
+	 *
+	 * @return the limiter, or null if downloads are not limited
+	 */
+	private RateLimiter getRateLimiter(String name, String manifestValue) {
+		String value = getParameters().getNamed().containsKey(name) ? getParameters().getNamed().get(name) : manifestValue;
+		if (value == null || value.trim().isEmpty())
+			return null;
+		return new RateLimiter(RateLimiter.parseRate(value));
+	}
+
+	/**
+	 * Background updates use <code>--max-background-rate</code>, and fall back to the limit of
+	 * foreground downloads.
+	 */
+	private RateLimiter getBackgroundRateLimiter(FXManifest remoteManifest) {
+		RateLimiter limiter = getRateLimiter("max-background-rate", remoteManifest.maxBackgroundRate);
+		return limiter != null ? limiter : getRateLimiter("max-download-rate", remoteManifest.maxDownloadRate);
+	}
+
+	/**
+	 * Resolve a numeric setting. A named command line parameter overrides the
+	 * manifest value, which overrides the default.
+	 */
+	protected int getIntSetting(String name, Integer manifestValue, int defaultValue) {
+		String value = getParameters().getNamed().get(name);
+		if (value != null)
+			return Integer.parseInt(value);
+		return manifestValue != null ? manifestValue : defaultValue;
 	}
 
 	protected void createApplicationEnvironment() throws Exception {
-		phase = Constants.getString("Application.Phase.Create"); 
+		setPhase(Constants.getString("Application.Phase.Create"));
 
 		if (manifest == null)
 			throw new IllegalArgumentException(Constants.getString("Error.Application.Manifest.Retrieve"));
@@ -179,6 +326,7 @@ public abstract class AbstractLauncher<APP> {
 
 	protected void syncManifest() throws Exception {
 		Map<String, String> namedParams = getParameters().getNamed();
+		getTransport();
 
 		String appStr = null;
 
@@ -215,33 +363,260 @@ public abstract class AbstractLauncher<APP> {
 		}
 
 		URL embeddedManifest = AbstractLauncher.class.getResource("/app.xml");
-		manifest = JAXB.unmarshal(embeddedManifest, FXManifest.class);
+		manifest = ManifestXml.read(embeddedManifest);
 
 		Path cacheDir = manifest.resolveCacheDir(namedParams);
 		Path manifestPath = manifest.getPath(cacheDir);
 
-		if (Files.exists(manifestPath))
-			manifest = JAXB.unmarshal(manifestPath.toFile(), FXManifest.class);
+		// Complete an update that was interrupted while it was being activated
+		StagingArea staging = new StagingArea(cacheDir);
+		if (staging.isActivationInterrupted() || staging.hasPending()) {
+			try (CacheLock lock = CacheLock.acquire(cacheDir)) {
+				staging.recover();
+				activatePendingUpdate(staging, cacheDir);
+			}
+		}
+
+		if (Files.exists(manifestPath)) {
+			snapshot = ManifestSnapshot.load(manifestPath);
+			if (snapshot != null) {
+				manifest = snapshot.manifest;
+			} else {
+				manifest = ManifestXml.read(manifestPath);
+				ManifestSnapshot.save(manifest, manifestPath);
+			}
+		}
 
 		if (getParameters().getUnnamed().contains("--offline")) {
 			log.info("offline selected");
 			return;
 		}
+
+		if (manifest.backgroundUpdate && Files.exists(manifestPath)) {
+			log.info(String.format("Launching cached version %s, checking for updates in the background", manifest.ts));
+			backgroundUpdate = true;
+			return;
+		}
+
+		FXManifest remoteManifest = null;
 		try {
-			FXManifest remoteManifest = FXManifest.load(manifest.getFXAppURI());
+			Path validatorsPath = getValidatorsPath(manifestPath);
+			HttpValidators validators = HttpValidators.load(validatorsPath);
+			if (!validators.isValidFor(manifest.getFXAppURI(), manifest.ts))
+				validators = new HttpValidators();
+
+			remoteManifest = loadRemoteManifest(manifest, validators);
 
 			if (remoteManifest == null) {
-				log.info(String.format("No remote manifest at %s", manifest.getFXAppURI()));
-			} else if (!remoteManifest.equals(manifest)) {
-				// Update to remote manifest if newer or we specifically accept downgrades
-				if (remoteManifest.isNewerThan(manifest) || manifest.acceptDowngrade) {
-					manifest = remoteManifest;
-					JAXB.marshal(manifest, manifestPath.toFile());
-				}
+				log.info(String.format("Remote manifest at %s not modified, using cached manifest", manifest.getFXAppURI()));
+			} else {
+				validators.save(validatorsPath);
 			}
 		} catch (Exception ex) {
 			log.log(Level.WARNING, String.format("Unable to update manifest from %s", manifest.getFXAppURI()), ex);
 		}
+
+		if (remoteManifest != null && !remoteManifest.equals(manifest)) {
+			// Update to remote manifest if newer or we specifically accept downgrades
+			// The manifest is written to the cache dir when the new version is activated
+			if ((remoteManifest.isNewerThan(manifest) || manifest.acceptDowngrade) && canVerify(remoteManifest)) {
+				previousManifest = manifest;
+				manifest = remoteManifest;
+				manifestChanged = true;
+			}
+		}
+	}
+
+	/**
+	 * Check that this JVM can verify the files of an update. Otherwise the cached version is kept,
+	 * or the update error is thrown when update errors stop the launcher.
+	 */
+	private boolean canVerify(FXManifest update) {
+		try {
+			update.checkChecksumAlgorithms();
+			return true;
+		} catch (IllegalStateException e) {
+			if (checkIgnoreUpdateErrorSetting())
+				throw e;
+			log.log(Level.WARNING, String.format("Unable to update, keeping version %s", manifest.ts), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Load the remote manifest from the uri of the current manifest, or from one of its mirrors
+	 * when it can't be reached.
+	 *
+	 * @return the manifest, or null if it was not modified
+	 */
+	private FXManifest loadRemoteManifest(FXManifest current, HttpValidators validators) throws IOException {
+		try {
+			return FXManifest.load(current.getFXAppURI(), validators);
+		} catch (IOException e) {
+			if (current.mirrors == null)
+				throw e;
+			for (URI mirror : current.mirrors) {
+				URI app = URI.create(ensureEndingSlash(mirror.toString()) + "app.xml");
+				try {
+					FXManifest remoteManifest = FXManifest.load(app);
+					log.warning(String.format("Unable to load manifest from %s, loaded it from mirror %s",
+							current.getFXAppURI(), mirror));
+					return remoteManifest;
+				} catch (IOException mirrorError) {
+					e.addSuppressed(mirrorError);
+				}
+			}
+			throw e;
+		}
+	}
+
+	private static Path getValidatorsPath(Path manifestPath) {
+		return manifestPath.resolveSibling(manifestPath.getFileName() + ".http");
+	}
+
+	/**
+	 * Activate a version that was downloaded by a background update during an earlier run.
+	 * The update is discarded if any of its files is no longer intact.
+	 */
+	private void activatePendingUpdate(StagingArea staging, Path cacheDir) {
+		FXManifest pending = staging.loadPending();
+		if (pending == null)
+			return;
+
+		ChecksumIndex index = ChecksumIndex.load(cacheDir);
+		try {
+			List<LibraryFile> staged = new ArrayList<>();
+			List<LibraryFile> unchanged = new ArrayList<>();
+			for (LibraryFile lib : pending.files) {
+				if (!lib.loadForCurrentPlatform())
+					continue;
+				Path path = staging.resolve(lib);
+				// Staged files were recorded in the index when they were verified
+				if (Files.exists(path) && (index.isVerified(lib.file, Files.readAttributes(path, BasicFileAttributes.class),
+						lib.getChecksumAlgorithm(), lib.checksum)
+						|| staging.isStaged(lib)))
+					staged.add(lib);
+				else
+					unchanged.add(lib);
+			}
+
+			CacheVerifier verifier = new CacheVerifier(cacheDir, index, getVerifyThreads(), false, report);
+			if (!verifier.findOutdated(unchanged, false).isEmpty()) {
+				log.warning(String.format("Discarding background update to version %s, some files are missing", pending.ts));
+				staging.discardPending();
+				return;
+			}
+
+			staging.activate(pending, staged);
+		} catch (Exception e) {
+			log.log(Level.WARNING, String.format("Unable to activate background update to version %s", pending.ts), e);
+			staging.discardPending();
+		} finally {
+			try {
+				index.save();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Unable to save checksum index", e);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the cached version was launched and the update runs in the background
+	 */
+	protected boolean isBackgroundUpdate() {
+		return backgroundUpdate;
+	}
+
+	/**
+	 * Use a manifest that another launcher synced to the cache dir instead of syncing it again, in
+	 * a JVM that was relaunched for class data sharing.
+	 */
+	protected void useSyncedManifest(Path manifestPath, boolean backgroundUpdate) throws IOException {
+		getTransport();
+		manifest = ManifestXml.read(manifestPath);
+		this.backgroundUpdate = backgroundUpdate;
+	}
+
+	/**
+	 * Start checking for a new version in the background if the cached version was launched
+	 * without checking. The new version is downloaded into the staging area on a low priority
+	 * thread and activated on the next start.
+	 */
+	protected void startBackgroundUpdate() {
+		if (!backgroundUpdate)
+			return;
+
+		Thread thread = new Thread(this::runBackgroundUpdate, "FXLauncher-BackgroundUpdate");
+		thread.setDaemon(true);
+		// The download pool inherits the priority of this thread
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private void runBackgroundUpdate() {
+		FXManifest current = manifest;
+		try {
+			Path cacheDir = current.resolveCacheDir(getParameters().getNamed());
+			Path manifestPath = current.getPath(cacheDir);
+			Path validatorsPath = getValidatorsPath(manifestPath);
+			HttpValidators validators = HttpValidators.load(validatorsPath);
+			if (!validators.isValidFor(current.getFXAppURI(), current.ts))
+				validators = new HttpValidators();
+
+			FXManifest remoteManifest = loadRemoteManifest(current, validators);
+			if (remoteManifest == null || remoteManifest.equals(current)
+					|| !(remoteManifest.isNewerThan(current) || current.acceptDowngrade)) {
+				log.info(String.format("No update available for version %s", current.ts));
+				return;
+			}
+			remoteManifest.checkChecksumAlgorithms();
+
+			StagingArea staging = new StagingArea(cacheDir);
+			ChecksumIndex index = ChecksumIndex.load(cacheDir);
+			List<LibraryFile> files = remoteManifest.files.stream().filter(LibraryFile::loadForCurrentPlatform)
+					.collect(Collectors.toList());
+			List<LibraryFile> needsUpdate = new CacheVerifier(cacheDir, index, 1, false, null).findOutdated(files, false);
+
+			// The rate limited download runs without the cache lock, so launchers starting meanwhile are not kept
+			// waiting. It has its own staging dir and lock, shared only with background updates of other instances.
+			StagingArea download = new StagingArea(cacheDir, StagingArea.BACKGROUND_DIRNAME);
+			Files.createDirectories(download.getDir());
+			try (CacheLock downloadLock = CacheLock.acquire(download.getDir())) {
+				if (!needsUpdate.isEmpty()) {
+					Path storeDir = remoteManifest.resolveContentStore(getParameters().getNamed(), cacheDir);
+					ContentStore store = storeDir != null ? new ContentStore(storeDir) : null;
+					Mirrors mirrors = new Mirrors(remoteManifest, cacheDir);
+					mirrors.probe(getTransport());
+					new FileDownloader(getTransport(), mirrors, cacheDir, index, store, download,
+							getDownloadThreads(), true, useLocalLinks(), progress -> {}, getBackgroundRateLimiter(remoteManifest), null)
+							.download(needsUpdate);
+				}
+
+				try (CacheLock lock = CacheLock.acquire(cacheDir)) {
+					FXManifest cached = ManifestXml.read(manifestPath);
+					if (!Objects.equals(cached.ts, current.ts)) {
+						log.info(String.format("Version %s was activated by another launcher, discarding the background update to %s",
+								cached.ts, remoteManifest.ts));
+						return;
+					}
+					download.moveTo(staging, needsUpdate);
+					staging.savePending(remoteManifest);
+				}
+			}
+			index.save();
+			validators.save(validatorsPath);
+			log.info(String.format("Version %s is staged and will be activated on the next start", remoteManifest.ts));
+			updateStaged(remoteManifest);
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Background update failed, it will be retried on the next start", e);
+		}
+	}
+
+	/**
+	 * Called from the background update thread when a new version has been downloaded and will be
+	 * activated on the next start.
+	 */
+	protected void updateStaged(FXManifest manifest) {
 	}
 
 	protected void setupIgnoreSSLCertificate() throws NoSuchAlgorithmException, KeyManagementException {
@@ -270,7 +645,35 @@ public abstract class AbstractLauncher<APP> {
 	}
 
 	protected boolean checkIgnoreUpdateErrorSetting() {
-		return getParameters().getUnnamed().contains("--stopOnUpdateErrors");
+		return getParameters().getUnnamed().contains("--stopOnUpdateErrors")
+				|| (manifest != null && Boolean.TRUE.equals(manifest.stopOnUpdateErrors));
+	}
+
+	/**
+	 * @return the timings and transfer statistics of this launch
+	 */
+	public LaunchReport getLaunchReport() {
+		return report;
+	}
+
+	/**
+	 * End the timing of the launch and write the report to the cache dir. Called when the
+	 * application is about to take over.
+	 */
+	protected void finishLaunchReport() {
+		report.finish();
+		if (manifest == null)
+			return;
+		report.setVersion(manifest.ts);
+		try {
+			Path cacheDir = manifest.resolveCacheDir(getParameters().getNamed());
+			report.save(cacheDir);
+			log.info(String.format("Launched version %s in %d ms, downloaded %d files (%d bytes), verified %d files (%d bytes)",
+					manifest.ts, TimeUnit.NANOSECONDS.toMillis(report.getDurationNanos()), report.getFilesDownloaded(),
+					report.getBytesDownloaded(), report.getFilesVerified(), report.getBytesVerified()));
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to save launch report", e);
+		}
 	}
 
 	public String getPhase() {
@@ -279,6 +682,7 @@ public abstract class AbstractLauncher<APP> {
 
 	public void setPhase(String phase) {
 		this.phase = phase;
+		report.startPhase(phase);
 	}
 
 	public FXManifest getManifest() {
@@ -289,6 +693,15 @@ public abstract class AbstractLauncher<APP> {
 
 	protected abstract void updateProgress(double progress);
 
+	/**
+	 * Called at most ten times per second while files are downloaded, and once more when all
+	 * files are done. The default implementation passes the fraction on to
+	 * {@link #updateProgress(double)}.
+	 */
+	protected void updateProgress(DownloadProgress progress) {
+		updateProgress(progress.getProgress());
+	}
+
 	protected abstract void createApplication(Class<APP> appClass);
 
 	protected abstract void reportError(String title, Throwable error);
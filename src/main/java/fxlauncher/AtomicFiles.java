@@ -0,0 +1,49 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files so that a concurrent reader, another launcher sharing the cache dir or the next
+ * start after a crash, sees either the old or the new content, never a partially written file.
+ * The content is written to a temporary file next to the target, which is then moved over it.
+ */
+class AtomicFiles {
+	/**
+	 * Fills the temporary file, which exists and is empty when it is passed in.
+	 */
+	interface Content {
+		void writeTo(Path temp) throws IOException;
+	}
+
+	private AtomicFiles() {
+	}
+
+	static void write(Path target, byte[] bytes) throws IOException {
+		write(target, temp -> Files.write(temp, bytes));
+	}
+
+	static void write(Path target, Content content) throws IOException {
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			content.writeTo(temp);
+			move(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Move the source over the target, atomically where the file system supports it.
+	 */
+	static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
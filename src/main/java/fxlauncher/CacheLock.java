@@ -0,0 +1,117 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exclusive lock on a cache dir, held while files are downloaded, staged and activated, so
+ * launchers of several users or several instances sharing a cache dir don't write the same
+ * files at the same time. The lock is a {@link FileLock} on <code>fxlauncher.lock</code> in the
+ * cache dir, which the operating system releases when the process dies.
+ * <p>
+ * Launching from a cache dir that is up to date does not take the lock: activation replaces
+ * files with atomic moves and writes the manifest last, so a reader always sees a complete
+ * version. File locks are held per process, so the lock is also guarded by a lock within the
+ * JVM, which serializes the launcher and its background update.
+ * <p>
+ * A background update holds the lock only while it hands its staged files over, the download
+ * itself is guarded by the same kind of lock on its own staging dir.
+ */
+class CacheLock implements AutoCloseable {
+	private static final Logger log = Logger.getLogger("CacheLock");
+
+	static final String FILENAME = "fxlauncher.lock";
+	private static final ConcurrentMap<Path, ReentrantLock> LOCAL = new ConcurrentHashMap<>();
+
+	private final ReentrantLock local;
+	private final FileChannel channel;
+	private final FileLock lock;
+
+	private CacheLock(ReentrantLock local, FileChannel channel, FileLock lock) {
+		this.local = local;
+		this.channel = channel;
+		this.lock = lock;
+	}
+
+	/**
+	 * Lock the cache dir, waiting for another launcher that is updating it. If the lock file
+	 * can't be written, for example because another user created it without sharing it, the
+	 * cache dir is used without a lock as before.
+	 */
+	static CacheLock acquire(Path cacheDir) throws IOException {
+		Path path = cacheDir.resolve(FILENAME).toAbsolutePath();
+		ReentrantLock local = LOCAL.computeIfAbsent(path, key -> new ReentrantLock());
+		if (!local.tryLock()) {
+			log.info(String.format("Waiting for the update of %s in this process", cacheDir));
+			local.lock();
+		}
+
+		FileChannel channel = null;
+		try {
+			channel = open(path);
+			FileLock lock = channel.tryLock();
+			if (lock == null) {
+				log.info(String.format("Waiting for another launcher to finish updating %s", cacheDir));
+				long start = System.nanoTime();
+				lock = channel.lock();
+				log.info(String.format("Waited %d ms for the lock on %s", (System.nanoTime() - start) / 1000000, cacheDir));
+			}
+			return new CacheLock(local, channel, lock);
+		} catch (FileLockInterruptionException e) {
+			channel.close();
+			local.unlock();
+			throw e;
+		} catch (IOException e) {
+			if (channel != null)
+				channel.close();
+			log.log(Level.WARNING, String.format("Unable to lock %s, updating it without a lock", cacheDir), e);
+			return new CacheLock(local, null, null);
+		} catch (RuntimeException | Error e) {
+			if (channel != null)
+				channel.close();
+			local.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open the lock file, and make a new one writable for all users on file systems with POSIX
+	 * permissions, so a shared cache dir can be locked by everybody who uses it.
+	 */
+	private static FileChannel open(Path path) throws IOException {
+		try {
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			try {
+				Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-rw-"));
+			} catch (UnsupportedOperationException | IOException e) {
+				log.log(Level.FINE, String.format("Unable to share %s", path), e);
+			}
+			return channel;
+		} catch (FileAlreadyExistsException e) {
+			return FileChannel.open(path, StandardOpenOption.WRITE);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			if (lock != null)
+				lock.release();
+			if (channel != null)
+				channel.close();
+		} finally {
+			local.unlock();
+		}
+	}
+}
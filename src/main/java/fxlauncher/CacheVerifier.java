@@ -0,0 +1,124 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/**
+ * Finds the files in the cache dir that are missing or outdated. Files that are
+ * trusted by the {@link ChecksumIndex} are skipped, the rest are hashed on a pool
+ * of worker threads.
+ */
+class CacheVerifier {
+	private static final Logger log = Logger.getLogger("CacheVerifier");
+
+	private final Path cacheDir;
+	private final ChecksumIndex index;
+	private final int threads;
+	private final boolean mmap;
+	private final LaunchReport report;
+
+	/**
+	 * @param report receives the verification statistics, may be null
+	 */
+	CacheVerifier(Path cacheDir, ChecksumIndex index, int threads, boolean mmap, LaunchReport report) {
+		this.cacheDir = cacheDir;
+		this.index = index;
+		this.threads = Math.max(1, threads);
+		this.mmap = mmap;
+		this.report = report;
+	}
+
+	/**
+	 * @param verify ignore the index and hash every file that exists with the expected size
+	 * @return the files that need to be downloaded
+	 */
+	List<LibraryFile> findOutdated(List<LibraryFile> files, boolean verify) throws IOException, InterruptedException {
+		List<LibraryFile> outdated = Collections.synchronizedList(new ArrayList<>());
+		List<LibraryFile> toHash = new ArrayList<>();
+
+		for (LibraryFile lib : files) {
+			Path path = cacheDir.resolve(lib.file);
+			if (!Files.exists(path)) {
+				outdated.add(lib);
+				continue;
+			}
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			if (attrs.size() != lib.size)
+				outdated.add(lib);
+			else if (verify || !index.isVerified(lib.file, attrs, lib.getChecksumAlgorithm(), lib.checksum))
+				toHash.add(lib);
+		}
+
+		if (report != null)
+			report.trusted(files.size() - outdated.size() - toHash.size());
+		if (!toHash.isEmpty())
+			hash(toHash, outdated);
+
+		// Keep manifest order so downloads are scheduled predictably
+		List<LibraryFile> result = new ArrayList<>(files);
+		result.retainAll(outdated);
+		return result;
+	}
+
+	private void hash(List<LibraryFile> toHash, List<LibraryFile> outdated) throws IOException, InterruptedException {
+		int poolSize = Math.min(threads, toHash.size());
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("FXLauncher-Verify"));
+		long start = System.nanoTime();
+		long bytes = 0;
+
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (LibraryFile lib : toHash) {
+				bytes += lib.size;
+				futures.add(executor.submit(() -> {
+					verifyFile(lib, outdated);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+
+		long nanos = System.nanoTime() - start;
+		if (report != null)
+			report.verified(toHash.size(), bytes, nanos);
+		long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+		double mbPerSecond = (bytes / (1024d * 1024d)) / (millis / 1000d);
+		log.info(String.format("Verified %d files (%d bytes) in %d ms using %d threads%s: %.1f MB/s", toHash.size(),
+				bytes, millis, poolSize, mmap ? " and memory mapping" : "", mbPerSecond));
+	}
+
+	private void verifyFile(LibraryFile lib, List<LibraryFile> outdated) throws IOException {
+		Path path = cacheDir.resolve(lib.file);
+		ChecksumAlgorithm algorithm = lib.getChecksumAlgorithm();
+		Checksum checksum = mmap && lib.size >= LibraryFile.MMAP_THRESHOLD ? LibraryFile.mappedChecksum(path, algorithm)
+				: LibraryFile.checksum(path, algorithm);
+
+		// The actual checksum is recorded even for outdated files, it identifies the base for a patch
+		index.put(lib.file, Files.readAttributes(path, BasicFileAttributes.class), algorithm, checksum.getValue());
+		if (!lib.matches(checksum))
+			outdated.add(lib);
+	}
+}
@@ -0,0 +1,191 @@
+package fxlauncher;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * The algorithms a manifest can use for the checksums of its files, named by the
+ * <code>algorithm</code> attribute of a file or the <code>checksumAlgorithm</code> element of
+ * the manifest. Files without an algorithm use Adler32, which every launcher version
+ * understands.
+ * <p>
+ * CRC32 and CRC32C are computed with CPU instructions by the JVM, CRC32C needs Java 9 or later.
+ * xxHash64 is the fastest pure Java hash and has a 64 bit value. SHA-256 is a cryptographic
+ * digest, its checksum is the first 64 bits of the digest and the full digest is kept in the
+ * <code>digest</code> attribute.
+ */
+enum ChecksumAlgorithm {
+	ADLER32("adler32"),
+	CRC32("crc32"),
+	CRC32C("crc32c"),
+	XXHASH64("xxhash64"),
+	SHA256("sha256");
+
+	static final ChecksumAlgorithm DEFAULT = ADLER32;
+
+	// Java 9 and later
+	private static final MethodHandle CRC32C_CONSTRUCTOR = findCrc32c();
+	private static final MethodHandle UPDATE_BUFFER = findUpdateBuffer();
+
+	final String id;
+
+	ChecksumAlgorithm(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @param name the id of an algorithm, or null for the default
+	 */
+	static ChecksumAlgorithm forName(String name) {
+		if (name == null)
+			return DEFAULT;
+		String id = name.trim().toLowerCase(Locale.ROOT).replace("-", "");
+		for (ChecksumAlgorithm algorithm : values())
+			if (algorithm.id.equals(id))
+				return algorithm;
+		throw new IllegalArgumentException(String.format(
+				"Unsupported checksum algorithm '%s', expected adler32, crc32, crc32c, xxhash64 or sha256", name));
+	}
+
+	/**
+	 * @return false if the algorithm needs a newer Java version
+	 */
+	boolean isAvailable() {
+		return this != CRC32C || CRC32C_CONSTRUCTOR != null;
+	}
+
+	Checksum create() {
+		switch (this) {
+			case CRC32:
+				return new CRC32();
+			case CRC32C:
+				if (CRC32C_CONSTRUCTOR == null)
+					throw new UnsupportedOperationException("The crc32c checksum algorithm needs Java 9 or later");
+				try {
+					return (Checksum) CRC32C_CONSTRUCTOR.invoke();
+				} catch (Throwable e) {
+					throw new IllegalStateException("Unable to create CRC32C", e);
+				}
+			case XXHASH64:
+				return new XXHash64();
+			case SHA256:
+				return new DigestChecksum("SHA-256");
+			default:
+				return new Adler32();
+		}
+	}
+
+	/**
+	 * Add the remaining bytes of the buffer without copying them to the heap where the
+	 * implementation allows it, which matters for memory mapped files.
+	 */
+	static void update(Checksum checksum, ByteBuffer buffer) {
+		if (checksum instanceof Adler32) {
+			((Adler32) checksum).update(buffer);
+		} else if (checksum instanceof CRC32) {
+			((CRC32) checksum).update(buffer);
+		} else if (checksum instanceof XXHash64) {
+			((XXHash64) checksum).update(buffer);
+		} else if (checksum instanceof DigestChecksum) {
+			((DigestChecksum) checksum).update(buffer);
+		} else if (UPDATE_BUFFER != null) {
+			try {
+				UPDATE_BUFFER.invoke(checksum, buffer);
+			} catch (Throwable e) {
+				throw new IllegalStateException("Unable to update checksum", e);
+			}
+		} else {
+			byte[] chunk = new byte[65536];
+			while (buffer.hasRemaining()) {
+				int length = Math.min(chunk.length, buffer.remaining());
+				buffer.get(chunk, 0, length);
+				checksum.update(chunk, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * @return the full digest as lower case hex for algorithms that are wider than the 64 bit
+	 *         checksum, otherwise null
+	 */
+	static String digest(Checksum checksum) {
+		if (!(checksum instanceof DigestChecksum))
+			return null;
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : ((DigestChecksum) checksum).getDigest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	private static MethodHandle findCrc32c() {
+		try {
+			return MethodHandles.publicLookup().findConstructor(Class.forName("java.util.zip.CRC32C"),
+					MethodType.methodType(void.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static MethodHandle findUpdateBuffer() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+					MethodType.methodType(void.class, ByteBuffer.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A message digest used as a checksum. The value is the first 64 bits of the digest.
+	 */
+	static class DigestChecksum implements Checksum {
+		private final MessageDigest digest;
+		private byte[] result;
+
+		DigestChecksum(String algorithm) {
+			try {
+				this.digest = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public void update(int b) {
+			digest.update((byte) b);
+		}
+
+		public void update(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+
+		public void update(ByteBuffer buffer) {
+			digest.update(buffer);
+		}
+
+		/**
+		 * Complete the digest. Bytes that are added afterwards are not part of it.
+		 */
+		byte[] getDigest() {
+			if (result == null)
+				result = digest.digest();
+			return result;
+		}
+
+		public long getValue() {
+			return ByteBuffer.wrap(getDigest()).getLong();
+		}
+
+		public void reset() {
+			digest.reset();
+			result = null;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package fxlauncher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent record of the files in the cache dir that have been verified against
+ * their checksum. A file whose size, modification time and file key still match the
+ * recorded values is trusted without being read again.
+ * <p>
+ * The index is stored as a small text file in the cache dir, one line per file. Checksums are
+ * recorded together with their algorithm, an index written before algorithms could be chosen
+ * holds Adler32 checksums.
+ */
+class ChecksumIndex {
+	private static final Logger log = Logger.getLogger("ChecksumIndex");
+
+	static final String FILENAME = ".fxlauncher-checksums";
+	private static final String HEADER_V1 = "# fxlauncher checksum index v1";
+	private static final String HEADER = "# fxlauncher checksum index v2";
+
+	private final Path indexFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean modified;
+
+	private ChecksumIndex(Path indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	static ChecksumIndex load(Path cacheDir) {
+		ChecksumIndex index = new ChecksumIndex(cacheDir.resolve(FILENAME));
+		if (!Files.exists(index.indexFile))
+			return index;
+
+		try (BufferedReader reader = Files.newBufferedReader(index.indexFile, StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			boolean v1 = HEADER_V1.equals(header);
+			if (!v1 && !HEADER.equals(header))
+				return index;
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (v1) {
+					String[] parts = line.split("\t", 5);
+					if (parts.length != 5)
+						continue;
+					index.entries.put(parts[4], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2],
+							ChecksumAlgorithm.ADLER32, Long.parseLong(parts[3])));
+				} else {
+					String[] parts = line.split("\t", 6);
+					if (parts.length != 6)
+						continue;
+					index.entries.put(parts[5], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2],
+							ChecksumAlgorithm.forName(parts[3]), Long.parseLong(parts[4])));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, String.format("Ignoring unreadable checksum index %s", index.indexFile), e);
+			index.entries.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * @return true if the file was verified to have the given checksum and has not
+	 *         changed on disk since.
+	 */
+	boolean isVerified(String file, BasicFileAttributes attrs, ChecksumAlgorithm algorithm, long checksum) {
+		Entry entry = entries.get(file);
+		return entry != null && entry.algorithm == algorithm && entry.checksum == checksum && entry.matches(attrs);
+	}
+
+	/**
+	 * @return the last verified checksum of the file with the algorithm if it has not changed
+	 *         on disk since, otherwise null
+	 */
+	Long getChecksum(String file, BasicFileAttributes attrs, ChecksumAlgorithm algorithm) {
+		Entry entry = entries.get(file);
+		return entry != null && entry.algorithm == algorithm && entry.matches(attrs) ? entry.checksum : null;
+	}
+
+	void put(String file, BasicFileAttributes attrs, ChecksumAlgorithm algorithm, long checksum) {
+		Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), algorithm, checksum);
+		if (!entry.equals(entries.put(file, entry)))
+			modified = true;
+	}
+
+	void remove(String file) {
+		if (entries.remove(file) != null)
+			modified = true;
+	}
+
+	/**
+	 * Write the index if it has changed. The file is replaced atomically so that
+	 * a concurrent reader never sees a partially written index.
+	 */
+	void save() throws IOException {
+		if (!modified)
+			return;
+
+		AtomicFiles.write(indexFile, temp -> {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Map.Entry<String, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(String.format("%d\t%d\t%s\t%s\t%d\t%s", entry.size, entry.lastModified, entry.fileKey,
+							entry.algorithm.id, entry.checksum, e.getKey()));
+					writer.newLine();
+				}
+			}
+		});
+		modified = false;
+	}
+
+	private static String fileKey(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return key != null ? key.toString().replace('\t', ' ') : "-";
+	}
+
+	private static class Entry {
+		final long size;
+		final long lastModified;
+		final String fileKey;
+		final ChecksumAlgorithm algorithm;
+		final long checksum;
+
+		Entry(long size, long lastModified, String fileKey, ChecksumAlgorithm algorithm, long checksum) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+			this.algorithm = algorithm;
+			this.checksum = checksum;
+		}
+
+		boolean matches(BasicFileAttributes attrs) {
+			return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis()
+					&& fileKey.equals(fileKey(attrs));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			Entry entry = (Entry) o;
+
+			return size == entry.size && lastModified == entry.lastModified && checksum == entry.checksum
+					&& algorithm == entry.algorithm && fileKey.equals(entry.fileKey);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = Long.hashCode(size);
+			result = 31 * result + Long.hashCode(lastModified);
+			result = 31 * result + fileKey.hashCode();
+			result = 31 * result + algorithm.hashCode();
+			result = 31 * result + Long.hashCode(checksum);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Application class data sharing archive for one version of the application. The first
+ * launch of a version runs with <code>-XX:ArchiveClassesAtExit</code>, so the JVM dumps
+ * the classes it loaded from the classpath when the application exits. Later launches of
+ * the same version map the archive with <code>-XX:SharedArchiveFile</code> instead of
+ * loading and verifying those classes again.
+ * <p>
+ * Dynamic archives require Java 13 or later, and only apply to classes loaded from the
+ * classpath of a new JVM, so the application has to be relaunched to benefit from them.
+ * The archive is tied to the JVM that created it, a mismatching archive is ignored by the
+ * JVM with a warning.
+ */
+class ClassDataSharing {
+	private static final Logger log = Logger.getLogger("ClassDataSharing");
+
+	static final String DIRNAME = ".cds";
+
+	private final String name;
+	private final Path archive;
+
+	ClassDataSharing(Path cacheDir, FXManifest manifest) {
+		this.name = manifest.launchClass != null ? manifest.launchClass : "app";
+		String jvm = Integer.toHexString(Objects.hash(System.getProperty("java.vm.vendor"), System.getProperty("java.vm.version")));
+		this.archive = cacheDir.resolve(DIRNAME).resolve(String.format("%s-%d-%s.jsa", name, manifest.ts, jvm)).toAbsolutePath();
+	}
+
+	/**
+	 * @return true if the running JVM supports dynamic archives
+	 */
+	static boolean isSupported() {
+		return getJavaVersion() >= 13;
+	}
+
+	static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "1.8");
+		if (version.startsWith("1."))
+			version = version.substring(2);
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 8;
+		}
+	}
+
+	/**
+	 * @return the java executable of the running JVM, which must also run the archive
+	 */
+	static String getJavaCommand() {
+		return Paths.get(System.getProperty("java.home"), "bin", OS.current == OS.win ? "java.exe" : "java").toString();
+	}
+
+	/**
+	 * System properties and heap settings of the launcher JVM, passed on to the relaunched JVM.
+	 */
+	static List<String> getInheritedJvmOptions() {
+		List<String> options = new ArrayList<>();
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+			if (arg.startsWith("-D") || arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-Xss"))
+				options.add(arg);
+		return options;
+	}
+
+	/**
+	 * The options that use the archive for this version, or create it if it does not exist yet.
+	 * Archives of other versions of the application are removed.
+	 */
+	List<String> getJvmOptions() throws IOException {
+		Files.createDirectories(archive.getParent());
+		removeOtherArchives();
+
+		if (Files.exists(archive) && Files.size(archive) > 0) {
+			log.info(String.format("Using class data sharing archive %s", archive));
+			return Collections.singletonList("-XX:SharedArchiveFile=" + archive);
+		}
+
+		log.info(String.format("Creating class data sharing archive %s when the application exits", archive));
+		return Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive);
+	}
+
+	private void removeOtherArchives() {
+		try (DirectoryStream<Path> archives = Files.newDirectoryStream(archive.getParent(), name + "-*.jsa")) {
+			for (Path other : archives)
+				if (!other.equals(archive))
+					Files.deleteIfExists(other);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Unable to remove old class data sharing archives", e);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package fxlauncher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+
+/**
+ * Index from directory names to the jars of the classpath containing entries in that directory,
+ * used by {@link IndexedClassLoader} to look up a class or resource in the jars that can contain
+ * it instead of probing every jar.
+ * <p>
+ * The index is stored in the cache dir together with the manifest version and the size and
+ * modification time of every jar, and is rebuilt when any of them change. Directories and
+ * multi-release jars are not indexed, {@link IndexedClassLoader} searches them and keeps the
+ * classpath order between them and the indexed jars.
+ */
+class ClassIndex {
+	private static final Logger log = Logger.getLogger("ClassIndex");
+
+	private static final int MAGIC = 0x4658434c; // FXCL
+	private static final int VERSION = 1;
+	private static final int[] NONE = new int[0];
+
+	final List<Path> jars;
+	final List<Path> unindexed;
+	/**
+	 * The positions on the classpath of the {@link #jars} and the {@link #unindexed} entries.
+	 */
+	final int[] jarPositions;
+	final int[] unindexedPositions;
+	private final Map<String, int[]> directories;
+
+	private ClassIndex(List<Path> classpath, List<Path> jars, List<Path> unindexed, Map<String, int[]> directories) {
+		this.jars = jars;
+		this.unindexed = unindexed;
+		this.jarPositions = positions(jars, classpath);
+		this.unindexedPositions = positions(unindexed, classpath);
+		this.directories = directories;
+	}
+
+	/**
+	 * The entries are a subsequence of the classpath.
+	 */
+	private static int[] positions(List<Path> entries, List<Path> classpath) {
+		int[] positions = new int[entries.size()];
+		int position = 0;
+		for (int i = 0; i < positions.length; i++) {
+			while (!classpath.get(position).equals(entries.get(i)))
+				position++;
+			positions[i] = position++;
+		}
+		return positions;
+	}
+
+	/**
+	 * @return the indexes in {@link #jars} of the jars with entries in the directory, in classpath order
+	 */
+	int[] getJars(String directory) {
+		int[] found = directories.get(directory);
+		return found != null ? found : NONE;
+	}
+
+	/**
+	 * @return the directory part of an entry name, the empty string for entries at the root
+	 */
+	static String directory(String entryName) {
+		int slash = entryName.lastIndexOf('/');
+		return slash > 0 ? entryName.substring(0, slash) : "";
+	}
+
+	/**
+	 * Load the index for the classpath of a manifest version, or build and save it when it is
+	 * missing or out of date.
+	 */
+	static ClassIndex load(Path indexFile, Long ts, List<Path> classpath) {
+		long start = System.currentTimeMillis();
+		ClassIndex index = read(indexFile, ts, classpath);
+		if (index != null)
+			return index;
+
+		index = build(classpath);
+		index.save(indexFile, ts, classpath);
+		log.info(String.format("Indexed %d directories in %d jars in %d ms", index.directories.size(), index.jars.size(),
+				System.currentTimeMillis() - start));
+		return index;
+	}
+
+	static ClassIndex build(List<Path> classpath) {
+		List<Path> jars = new ArrayList<>();
+		List<Path> unindexed = new ArrayList<>();
+		Map<String, List<Integer>> directories = new LinkedHashMap<>();
+
+		for (Path path : classpath) {
+			if (!Files.isRegularFile(path)) {
+				unindexed.add(path);
+				continue;
+			}
+			try (JarFile jar = new JarFile(path.toFile(), false)) {
+				if (isMultiRelease(jar)) {
+					unindexed.add(path);
+					continue;
+				}
+				int jarIndex = jars.size();
+				jars.add(path);
+				Enumeration<JarEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					if (entry.isDirectory())
+						continue;
+					List<Integer> found = directories.computeIfAbsent(directory(entry.getName()), name -> new ArrayList<>(1));
+					if (found.isEmpty() || found.get(found.size() - 1) != jarIndex)
+						found.add(jarIndex);
+				}
+			} catch (ZipException e) {
+				// Native libraries and other files that are not jars never contain classes
+				log.log(Level.FINE, String.format("Not indexing %s", path), e);
+			} catch (IOException e) {
+				log.log(Level.WARNING, String.format("Unable to index %s", path), e);
+				unindexed.add(path);
+			}
+		}
+
+		Map<String, int[]> index = new HashMap<>(directories.size() * 2);
+		for (Map.Entry<String, List<Integer>> entry : directories.entrySet())
+			index.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+		return new ClassIndex(classpath, jars, unindexed, index);
+	}
+
+	/**
+	 * Multi-release jars select entries by the version of the running JVM, which only the
+	 * JDK class loader implements.
+	 */
+	private static boolean isMultiRelease(JarFile jar) throws IOException {
+		Manifest manifest = jar.getManifest();
+		return manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+	}
+
+	private static ClassIndex read(Path indexFile, Long ts, List<Path> classpath) {
+		if (!Files.exists(indexFile))
+			return null;
+
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(indexFile)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != (ts != null ? ts : 0))
+				return null;
+			if (input.readInt() != classpath.size())
+				return null;
+
+			List<Path> jars = new ArrayList<>();
+			List<Path> unindexed = new ArrayList<>();
+			for (Path path : classpath) {
+				if (!input.readUTF().equals(path.toString()) || !matches(input, path))
+					return null;
+				byte kind = input.readByte();
+				if (kind == 1)
+					jars.add(path);
+				else if (kind == 2)
+					unindexed.add(path);
+			}
+
+			int count = input.readInt();
+			Map<String, int[]> directories = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String directory = input.readUTF();
+				int[] found = new int[input.readInt()];
+				for (int j = 0; j < found.length; j++)
+					found[j] = input.readInt();
+				directories.put(directory, found);
+			}
+			return new ClassIndex(classpath, jars, unindexed, directories);
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.FINE, String.format("Ignoring unreadable class index %s", indexFile), e);
+			return null;
+		}
+	}
+
+	private static boolean matches(DataInputStream input, Path path) throws IOException {
+		long size = input.readLong();
+		long modified = input.readLong();
+		if (!Files.exists(path))
+			return size == -1;
+		BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+	}
+
+	private void save(Path indexFile, Long ts, List<Path> classpath) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+			try (DataOutputStream output = new DataOutputStream(bytes)) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(ts != null ? ts : 0);
+				output.writeInt(classpath.size());
+				for (Path path : classpath) {
+					output.writeUTF(path.toString());
+					if (Files.exists(path)) {
+						BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+						output.writeLong(attrs.size());
+						output.writeLong(attrs.lastModifiedTime().toMillis());
+					} else {
+						output.writeLong(-1);
+						output.writeLong(-1);
+					}
+					output.writeByte(jars.contains(path) ? 1 : unindexed.contains(path) ? 2 : 0);
+				}
+
+				output.writeInt(directories.size());
+				for (Map.Entry<String, int[]> entry : directories.entrySet()) {
+					output.writeUTF(entry.getKey());
+					output.writeInt(entry.getValue().length);
+					for (int jar : entry.getValue())
+						output.writeInt(jar);
+				}
+			}
+
+			AtomicFiles.write(indexFile, bytes.toByteArray());
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to save class index %s", indexFile), e);
+		}
+	}
+}
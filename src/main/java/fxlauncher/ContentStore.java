@@ -0,0 +1,98 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed store of library files, keyed by checksum and size. Files in the
+ * cache dir are hard links to the store entries where the file system allows it, so
+ * identical files are stored once and never downloaded again, even if they move to
+ * another path or are used by another application sharing the store.
+ * <p>
+ * Store entries are never modified in place. Files in the cache dir must therefore
+ * always be replaced by moving a new file over them, never by writing into them.
+ */
+class ContentStore {
+	private static final Logger log = Logger.getLogger("ContentStore");
+
+	private final Path dir;
+
+	ContentStore(Path dir) {
+		this.dir = dir;
+	}
+
+	Path getPath(LibraryFile lib) {
+		// Algorithms with a digest are keyed by the full digest
+		String key = lib.digest != null ? lib.digest : String.format("%08x", lib.checksum);
+		return dir.resolve(String.format("%02x", lib.checksum & 0xff))
+				.resolve(String.format("%s-%s-%d", lib.getChecksumAlgorithm().id, key, lib.size));
+	}
+
+	/**
+	 * Restore the file from the store if an entry with the right content exists.
+	 *
+	 * @return true if the target now holds the expected content
+	 */
+	boolean restore(LibraryFile lib, Path target) {
+		Path entry = getPath(lib);
+		if (!Files.exists(entry))
+			return false;
+
+		Path temp = target.resolveSibling(target.getFileName() + ".store");
+		try {
+			if (!lib.matches(entry)) {
+				log.warning(String.format("Removing corrupt store entry %s", entry));
+				Files.deleteIfExists(entry);
+				return false;
+			}
+			link(entry, temp);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			log.info(String.format("Restored %s from content store", lib.file));
+			return true;
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to restore %s from content store", lib.file), e);
+			return false;
+		} finally {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Add a verified file from the cache dir to the store, unless an entry for it already exists.
+	 */
+	void add(LibraryFile lib, Path source) {
+		Path entry = getPath(lib);
+		if (Files.exists(entry))
+			return;
+
+		try {
+			Files.createDirectories(entry.getParent());
+			// An entry added concurrently by another launcher sharing the store has the same content
+			AtomicFiles.write(entry, temp -> {
+				Files.delete(temp);
+				link(source, temp);
+			});
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to add %s to content store", lib.file), e);
+		}
+	}
+
+	/**
+	 * Hard link the source to the target, or copy it when the file system does not support hard links
+	 * between the two locations.
+	 */
+	private static void link(Path source, Path target) throws IOException {
+		try {
+			Files.createLink(target, source);
+		} catch (UnsupportedOperationException | IOException e) {
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -1,16 +1,19 @@
 package fxlauncher;
 
-import javax.xml.bind.JAXB;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 public class CreateManifest {
     private static ArrayList<String> includeExtensions = new ArrayList<>();
@@ -36,6 +39,18 @@ public class CreateManifest {
         String preloadNativeLibraries = null;
         Boolean lingeringUpdateScreen = false;
         Boolean stopOnUpdateErrorsDeprecated = null;
+        Integer downloadThreads = null;
+        Integer verifyThreads = null;
+        Path deltaFrom = null;
+        String contentStore = null;
+        String compress = null;
+        Boolean backgroundUpdate = null;
+        String maxDownloadRate = null;
+        String maxBackgroundRate = null;
+        List<URI> mirrors = null;
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.DEFAULT;
+        Long chunkSize = null;
+        long chunkThreshold = LibraryChunks.DEFAULT_THRESHOLD;
 
         if (args.length > 3) {
             // Parse named parameters
@@ -81,6 +96,57 @@ public class CreateManifest {
                 if (named.containsKey("lingering-update-screen"))
                     lingeringUpdateScreen = Boolean.valueOf(named.get("lingering-update-screen"));
 
+                // Configure the number of concurrent downloads
+                if (named.containsKey("download-threads"))
+                    downloadThreads = Integer.valueOf(named.get("download-threads"));
+
+                // Configure the number of threads verifying cached files
+                if (named.containsKey("verify-threads"))
+                    verifyThreads = Integer.valueOf(named.get("verify-threads"));
+
+                // Configure the content addressed store
+                if (named.containsKey("content-store"))
+                    contentStore = named.get("content-store");
+
+                // Download updates in the background and apply them on the next start
+                if (named.containsKey("background-update"))
+                    backgroundUpdate = Boolean.valueOf(named.get("background-update"));
+
+                // Limit the download rate of the launcher and of background updates
+                if (named.containsKey("max-download-rate"))
+                    maxDownloadRate = named.get("max-download-rate");
+                if (named.containsKey("max-background-rate"))
+                    maxBackgroundRate = named.get("max-background-rate");
+
+                // Mirrors publishing the same files as the base uri
+                if (named.containsKey("mirrors"))
+                    mirrors = Arrays.stream(named.get("mirrors").split(","))
+                            .map(String::trim)
+                            .filter(s -> !s.isEmpty())
+                            .map(URI::create)
+                            .collect(Collectors.toList());
+
+                // Checksum algorithm for the files
+                if (named.containsKey("checksum")) {
+                    checksumAlgorithm = ChecksumAlgorithm.forName(named.get("checksum"));
+                    if (!checksumAlgorithm.isAvailable())
+                        throw new IllegalArgumentException(String.format("The %s checksum algorithm needs Java 9 or later", checksumAlgorithm.id));
+                }
+
+                // Record chunk checksums of large files, so only changed chunks are downloaded
+                if (named.containsKey("chunk-size"))
+                    chunkSize = Strings.parseSize(named.get("chunk-size"));
+                if (named.containsKey("chunk-threshold"))
+                    chunkThreshold = Strings.parseSize(named.get("chunk-threshold"));
+
+                // Publish compressed variants of the files
+                if (named.containsKey("compress"))
+                    compress = named.get("compress");
+
+                // Create binary patches from a previous release
+                if (named.containsKey("delta-from"))
+                    deltaFrom = Paths.get(named.get("delta-from"));
+
                 // Configure the whats-new option
                 if (named.containsKey("whats-new"))
                     whatsNew = named.get("whats-new");
@@ -113,6 +179,18 @@ public class CreateManifest {
                 if (raw.startsWith("--preload-native-libraries=")) continue;
                 if (raw.startsWith("--whats-new")) continue;
                 if (raw.startsWith("--lingering-update-screen")) continue;
+                if (raw.startsWith("--download-threads=")) continue;
+                if (raw.startsWith("--verify-threads=")) continue;
+                if (raw.startsWith("--delta-from=")) continue;
+                if (raw.startsWith("--content-store=")) continue;
+                if (raw.startsWith("--compress=")) continue;
+                if (raw.startsWith("--background-update=")) continue;
+                if (raw.startsWith("--max-download-rate=")) continue;
+                if (raw.startsWith("--max-background-rate=")) continue;
+                if (raw.startsWith("--mirrors=")) continue;
+                if (raw.startsWith("--checksum=")) continue;
+                if (raw.startsWith("--chunk-size=")) continue;
+                if (raw.startsWith("--chunk-threshold=")) continue;
                 if (rest.length() > 0) rest.append(" ");
                 rest.append(raw);
             }
@@ -122,7 +200,18 @@ public class CreateManifest {
                 parameters = rest.toString();
         }
 
-        FXManifest manifest = create(baseURI, launchClass, appPath);
+        FXManifest manifest = create(baseURI, launchClass, appPath, checksumAlgorithm);
+        if (deltaFrom != null) createPatches(manifest, appPath, deltaFrom);
+        if (chunkSize != null) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException(String.format("Invalid chunk size %d, it must be positive", chunkSize));
+            createChunks(manifest, appPath, chunkSize, chunkThreshold);
+        }
+        if (compress != null) {
+            if (!compress.equals("gzip"))
+                throw new IllegalArgumentException(String.format("Unsupported compression '%s', only gzip is supported", compress));
+            createCompressedVariants(manifest, appPath);
+        }
         if (updateText != null) manifest.updateText = updateText;
         if (updateLabelStyle != null) manifest.updateLabelStyle = updateLabelStyle;
         if (progressBarStyle != null) manifest.progressBarStyle = progressBarStyle;
@@ -132,6 +221,13 @@ public class CreateManifest {
         if (parameters != null) manifest.parameters = parameters;
         if (preloadNativeLibraries != null) manifest.preloadNativeLibraries = preloadNativeLibraries;
         if (whatsNew != null) manifest.whatsNewPage = whatsNew;
+        if (downloadThreads != null) manifest.downloadThreads = downloadThreads;
+        if (verifyThreads != null) manifest.verifyThreads = verifyThreads;
+        if (contentStore != null) manifest.contentStore = contentStore;
+        if (backgroundUpdate != null) manifest.backgroundUpdate = backgroundUpdate;
+        if (maxDownloadRate != null) manifest.maxDownloadRate = maxDownloadRate;
+        if (maxBackgroundRate != null) manifest.maxBackgroundRate = maxBackgroundRate;
+        if (mirrors != null) manifest.mirrors = mirrors;
         manifest.lingeringUpdateScreen = lingeringUpdateScreen;
 
         // Use --stop-on-update-errors if it was specified.
@@ -150,10 +246,18 @@ public class CreateManifest {
             System.out.println("Warning: --stopOnUpdateErrors is deprecated. "
                     + "Use --stop-on-update-errors instead.");
         }
-        JAXB.marshal(manifest, appPath.resolve("app.xml").toFile());
+        ManifestXml.write(manifest, appPath.resolve("app.xml"));
     }
 
     public static FXManifest create(URI baseURI, String launchClass, Path appPath) throws IOException, URISyntaxException {
+        return create(baseURI, launchClass, appPath, ChecksumAlgorithm.DEFAULT);
+    }
+
+    /**
+     * Create the manifest with checksums of the given algorithm. The algorithm is named on every file,
+     * and on the manifest for files that are added to it later.
+     */
+    static FXManifest create(URI baseURI, String launchClass, Path appPath, ChecksumAlgorithm algorithm) throws IOException, URISyntaxException {
         FXManifest manifest = new FXManifest();
         manifest.ts = System.currentTimeMillis();
         manifest.uri = baseURI;
@@ -165,14 +269,97 @@ public class CreateManifest {
         Files.walkFileTree(appPath, new SimpleFileVisitor<Path>() {
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 if (!Files.isDirectory(file) && shouldIncludeInManifest(file) && !file.getFileName().toString().startsWith("fxlauncher"))
-                    manifest.files.add(new LibraryFile(appPath, file));
+                    manifest.files.add(new LibraryFile(appPath, file, algorithm));
                 return FileVisitResult.CONTINUE;
             }
         });
+        if (algorithm != ChecksumAlgorithm.DEFAULT)
+            manifest.checksumAlgorithm = algorithm.id;
 
         return manifest;
     }
 
+    /**
+     * Create binary patches from the files of a previous release to the files in the manifest.
+     * The previous release directory must contain the files and the app.xml it was published with.
+     * Patches are written to the <code>patches</code> folder of the app path and listed in the manifest,
+     * but only when they are considerably smaller than the file itself.
+     *
+     * @param previousRelease the directory of the previous release
+     */
+    public static void createPatches(FXManifest manifest, Path appPath, Path previousRelease) throws IOException {
+        FXManifest previous = ManifestXml.read(previousRelease.resolve("app.xml"));
+        Map<String, LibraryFile> previousFiles = new HashMap<>();
+        for (LibraryFile lib : previous.files)
+            previousFiles.put(lib.file, lib);
+
+        for (LibraryFile lib : manifest.files) {
+            LibraryFile old = previousFiles.get(lib.file);
+            Path oldPath = previousRelease.resolve(lib.file);
+            if (old == null || old.checksum.equals(lib.checksum) || !Files.exists(oldPath)) continue;
+            // The launcher looks up patches by the checksum of the cached file in the new algorithm
+            if (old.getChecksumAlgorithm() != lib.getChecksumAlgorithm()) continue;
+
+            if (lib.size > DeltaPatch.MAX_FILE_SIZE || Files.size(oldPath) > DeltaPatch.MAX_FILE_SIZE) {
+                System.out.println(String.format("Skipped patch for %s, the file is too large", lib.file));
+                continue;
+            }
+
+            String patchFile = String.format("patches/%s.%d.patch", lib.file, old.checksum);
+            Path patchPath = appPath.resolve(patchFile);
+            Files.createDirectories(patchPath.getParent());
+            try (OutputStream output = Files.newOutputStream(patchPath)) {
+                DeltaPatch.create(oldPath, appPath.resolve(lib.file), output);
+            }
+            long patchSize = Files.size(patchPath);
+            if (patchSize > lib.size / 2) {
+                Files.delete(patchPath);
+                continue;
+            }
+
+            lib.patches = new ArrayList<>();
+            lib.patches.add(new LibraryPatch(patchFile, old.checksum, patchSize));
+            System.out.println(String.format("Created patch %s (%d bytes instead of %d)", patchFile, patchSize, lib.size));
+        }
+    }
+
+    /**
+     * Record the checksums of the fixed size chunks of every file that is at least <code>threshold</code>
+     * bytes large, so the launcher can fetch only the chunks that changed since the cached version.
+     */
+    public static void createChunks(FXManifest manifest, Path appPath, long chunkSize, long threshold) throws IOException {
+        for (LibraryFile lib : manifest.files) {
+            if (lib.size < threshold || lib.size <= chunkSize) continue;
+            lib.chunks = LibraryChunks.create(appPath.resolve(lib.file), chunkSize, lib.getChecksumAlgorithm());
+            System.out.println(String.format("Recorded %d chunks of %s", lib.chunks.getChecksums().length, lib.file));
+        }
+    }
+
+    /**
+     * Write a gzip compressed variant next to every file in the manifest and record it on the
+     * library file. Variants that do not save at least 10% are deleted again, which is usually
+     * the case for jar files, since their entries are compressed already.
+     */
+    public static void createCompressedVariants(FXManifest manifest, Path appPath) throws IOException {
+        for (LibraryFile lib : manifest.files) {
+            Path compressed = appPath.resolve(lib.getCompressedFile());
+            try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressed), 65536) {{
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }}) {
+                Files.copy(appPath.resolve(lib.file), output);
+            }
+
+            long compressedSize = Files.size(compressed);
+            if (compressedSize > lib.size * 0.9) {
+                Files.delete(compressed);
+                continue;
+            }
+            lib.compression = "gzip";
+            lib.compressedSize = compressedSize;
+            System.out.println(String.format("Compressed %s to %d bytes instead of %d", lib.file, compressedSize, lib.size));
+        }
+    }
+
     /**
      * Add the includeExtensions to the default list of "war" and "jar".
      * <p>
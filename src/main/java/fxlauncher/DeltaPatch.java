@@ -0,0 +1,214 @@
+package fxlauncher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary delta between two versions of a file. The patch is a deflated sequence of
+ * instructions that either copy a range from the base file or insert literal bytes.
+ * <p>
+ * Matching ranges are found with a rolling checksum over fixed size blocks of the
+ * base file, so content that moved within the file is still copied instead of sent.
+ * Patches are created from memory mapped files and applied while they are read, neither
+ * version of the file is held on the heap.
+ */
+class DeltaPatch {
+	private static final int MAGIC = 0x46584c50; // FXLP
+	private static final int VERSION = 1;
+	private static final int BLOCK_SIZE = 2048;
+	static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	private static final int OP_END = 0;
+	private static final int OP_COPY = 1;
+	private static final int OP_DATA = 2;
+
+	private DeltaPatch() {
+	}
+
+	/**
+	 * Write a patch that transforms <code>base</code> into <code>target</code>. Both files are memory
+	 * mapped instead of read onto the heap, each must be smaller than {@link #MAX_FILE_SIZE}.
+	 */
+	static void create(Path base, Path target, OutputStream out) throws IOException {
+		try (FileChannel baseChannel = FileChannel.open(base, StandardOpenOption.READ);
+			 FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.READ)) {
+			if (baseChannel.size() > MAX_FILE_SIZE || targetChannel.size() > MAX_FILE_SIZE)
+				throw new IOException(String.format("Unable to create a patch for files larger than %d bytes", MAX_FILE_SIZE));
+			create(baseChannel.map(FileChannel.MapMode.READ_ONLY, 0, baseChannel.size()),
+					targetChannel.map(FileChannel.MapMode.READ_ONLY, 0, targetChannel.size()), out);
+		}
+	}
+
+	private static void create(ByteBuffer base, ByteBuffer target, OutputStream out) throws IOException {
+		int baseLength = base.limit();
+		int targetLength = target.limit();
+		Map<Integer, List<Integer>> blocks = new HashMap<>();
+		for (int offset = 0; offset + BLOCK_SIZE <= baseLength; offset += BLOCK_SIZE)
+			blocks.computeIfAbsent(new RollingChecksum(base, offset).value(), k -> new ArrayList<>()).add(offset);
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(out, deflater));
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeLong(targetLength);
+
+		byte[] buf = new byte[65536];
+		int literalStart = 0;
+		int pos = 0;
+		RollingChecksum rolling = targetLength >= BLOCK_SIZE ? new RollingChecksum(target, 0) : null;
+
+		while (rolling != null && pos + BLOCK_SIZE <= targetLength) {
+			int match = findMatch(blocks.get(rolling.value()), base, target, pos);
+			if (match >= 0) {
+				// Extend the match backwards into pending literal bytes and forwards past the block
+				while (pos > literalStart && match > 0 && target.get(pos - 1) == base.get(match - 1)) {
+					pos--;
+					match--;
+				}
+				int length = 0;
+				while (pos + length < targetLength && match + length < baseLength
+						&& target.get(pos + length) == base.get(match + length))
+					length++;
+
+				writeData(data, target, literalStart, pos, buf);
+				data.writeByte(OP_COPY);
+				data.writeLong(match);
+				data.writeInt(length);
+
+				pos += length;
+				literalStart = pos;
+				if (pos + BLOCK_SIZE <= targetLength)
+					rolling = new RollingChecksum(target, pos);
+			} else {
+				if (pos + BLOCK_SIZE < targetLength)
+					rolling.roll(target.get(pos), target.get(pos + BLOCK_SIZE));
+				pos++;
+			}
+		}
+
+		writeData(data, target, literalStart, targetLength, buf);
+		data.writeByte(OP_END);
+		data.flush();
+		data.close();
+		deflater.end();
+	}
+
+	/**
+	 * Apply a patch to the base file and write the resulting file to <code>out</code>.
+	 *
+	 * @return the number of bytes written
+	 */
+	static long apply(Path base, InputStream patch, OutputStream out) throws IOException {
+		DataInputStream data = new DataInputStream(new InflaterInputStream(patch));
+		if (data.readInt() != MAGIC || data.readByte() != VERSION)
+			throw new IOException("Unsupported patch format");
+		long expectedSize = data.readLong();
+
+		long written = 0;
+		byte[] buf = new byte[65536];
+
+		try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+			int op;
+			while ((op = data.readByte()) != OP_END) {
+				if (op == OP_COPY) {
+					long position = data.readLong();
+					int remaining = data.readInt();
+					while (remaining > 0) {
+						ByteBuffer buffer = ByteBuffer.wrap(buf, 0, Math.min(buf.length, remaining));
+						int read = channel.read(buffer, position);
+						if (read < 0)
+							throw new IOException("Patch refers to data beyond the end of the base file");
+						out.write(buf, 0, read);
+						position += read;
+						remaining -= read;
+						written += read;
+					}
+				} else if (op == OP_DATA) {
+					int remaining = data.readInt();
+					while (remaining > 0) {
+						int read = data.read(buf, 0, Math.min(buf.length, remaining));
+						if (read < 0)
+							throw new IOException("Truncated patch");
+						out.write(buf, 0, read);
+						remaining -= read;
+						written += read;
+					}
+				} else {
+					throw new IOException(String.format("Unknown patch instruction %d", op));
+				}
+			}
+		}
+
+		if (written != expectedSize)
+			throw new IOException(String.format("Patched file has %d bytes, expected %d", written, expectedSize));
+		return written;
+	}
+
+	private static int findMatch(List<Integer> candidates, ByteBuffer base, ByteBuffer target, int pos) {
+		if (candidates == null)
+			return -1;
+		for (int offset : candidates) {
+			boolean equal = true;
+			for (int i = 0; i < BLOCK_SIZE && equal; i++)
+				equal = base.get(offset + i) == target.get(pos + i);
+			if (equal)
+				return offset;
+		}
+		return -1;
+	}
+
+	private static void writeData(DataOutputStream data, ByteBuffer target, int from, int to, byte[] buf)
+			throws IOException {
+		if (to <= from)
+			return;
+		data.writeByte(OP_DATA);
+		data.writeInt(to - from);
+		ByteBuffer literal = target.duplicate();
+		literal.limit(to).position(from);
+		while (literal.hasRemaining()) {
+			int length = Math.min(buf.length, literal.remaining());
+			literal.get(buf, 0, length);
+			data.write(buf, 0, length);
+		}
+	}
+
+	/**
+	 * The weak rolling checksum from rsync, updated in constant time as the window moves one byte.
+	 */
+	private static class RollingChecksum {
+		private int a;
+		private int b;
+
+		RollingChecksum(ByteBuffer data, int offset) {
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				int value = data.get(offset + i) & 0xff;
+				a += value;
+				b += (BLOCK_SIZE - i) * value;
+			}
+		}
+
+		void roll(byte out, byte in) {
+			int outValue = out & 0xff;
+			a = a - outValue + (in & 0xff);
+			b = b - BLOCK_SIZE * outValue + a;
+		}
+
+		int value() {
+			return (b & 0xffff) << 16 | (a & 0xffff);
+		}
+	}
+}
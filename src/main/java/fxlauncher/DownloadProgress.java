@@ -0,0 +1,90 @@
+package fxlauncher;
+
+/**
+ * The state of an update at one point in time, passed to
+ * {@link UIProvider#updateProgress(DownloadProgress)}. Files that were restored without a
+ * transfer, from the staging area, the content store or a patch, count as done but do not
+ * contribute to the throughput.
+ */
+public class DownloadProgress {
+	private final String file;
+	private final long bytesDone;
+	private final long bytesTotal;
+	private final int filesDone;
+	private final int filesTotal;
+	private final double bytesPerSecond;
+	private final boolean done;
+
+	DownloadProgress(String file, long bytesDone, long bytesTotal, int filesDone, int filesTotal, double bytesPerSecond,
+			boolean done) {
+		this.file = file;
+		this.bytesDone = bytesDone;
+		this.bytesTotal = bytesTotal;
+		this.filesDone = filesDone;
+		this.filesTotal = filesTotal;
+		this.bytesPerSecond = bytesPerSecond;
+		this.done = done;
+	}
+
+	/**
+	 * @return the file that was started most recently, or null before the first file
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	public long getBytesDone() {
+		return bytesDone;
+	}
+
+	public long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	public int getFilesDone() {
+		return filesDone;
+	}
+
+	public int getFilesTotal() {
+		return filesTotal;
+	}
+
+	/**
+	 * @return a number between 0 and 1
+	 */
+	public double getProgress() {
+		if (done)
+			return 1d;
+		return bytesTotal > 0 ? Math.min(1d, (double) bytesDone / (double) bytesTotal) : 0d;
+	}
+
+	/**
+	 * @return the throughput in bytes per second, smoothed over the last few seconds
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return the estimated number of seconds until all files are done, or -1 while the throughput is unknown
+	 */
+	public long getSecondsRemaining() {
+		if (done)
+			return 0;
+		if (bytesPerSecond <= 0)
+			return -1;
+		return (long) Math.ceil(Math.max(0, bytesTotal - bytesDone) / bytesPerSecond);
+	}
+
+	/**
+	 * @return true for the last progress of an update
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	public String toString() {
+		return String.format("%d%% (%d/%d files, %d/%d bytes, %.0f bytes/s, %d s remaining)", (int) (getProgress() * 100),
+				filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond, getSecondsRemaining());
+	}
+}
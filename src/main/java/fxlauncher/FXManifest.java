@@ -1,15 +1,14 @@
 package fxlauncher;
 
-import javax.xml.bind.JAXB;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -50,6 +49,47 @@ public class FXManifest {
 	public String whatsNewPage;
 	@XmlElement
 	public Boolean lingeringUpdateScreen = false;
+	@XmlElement
+	public Integer downloadThreads;
+	@XmlElement
+	public Integer verifyThreads;
+	@XmlElement
+	public String contentStore;
+	@XmlElement
+	public Boolean backgroundUpdate = false;
+	@XmlElement
+	public String maxDownloadRate;
+	@XmlElement
+	public String maxBackgroundRate;
+	@XmlElement(name = "mirror")
+	public List<URI> mirrors;
+	@XmlElement
+	public String checksumAlgorithm;
+
+	/**
+	 * Let the files that don't name a checksum algorithm use the one of the manifest, so every
+	 * file knows its algorithm after the manifest has been read.
+	 */
+	void inheritChecksumAlgorithm() {
+		if (checksumAlgorithm == null)
+			return;
+		for (LibraryFile lib : files)
+			if (lib.algorithm == null)
+				lib.algorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * Fail with a clear error when a file uses a checksum algorithm this JVM can't compute, such as
+	 * crc32c on Java 8, before any file of the manifest is verified or downloaded.
+	 */
+	void checkChecksumAlgorithms() {
+		for (LibraryFile lib : files) {
+			ChecksumAlgorithm algorithm = lib.getChecksumAlgorithm();
+			if (!algorithm.isAvailable())
+				throw new IllegalStateException(String.format(
+						"Version %s uses the %s checksum algorithm for %s, which needs Java 9 or later", ts, algorithm.id, lib.file));
+		}
+	}
 
 	public List<String> getPreloadNativeLibraryList() {
 		if (preloadNativeLibraries == null || preloadNativeLibraries.isEmpty()) return Collections.emptyList();
@@ -77,47 +117,73 @@ public class FXManifest {
 
 		if (cacheDir == null || cacheDir.isEmpty()) return Paths.get(".");
 
+		return resolveDirectory(cacheDir);
+	}
+
+	/**
+	 * Resolve the directory of the content addressed store from the <code>content-store</code>
+	 * parameter or the manifest. A relative directory is resolved against the cache dir.
+	 *
+	 * @return the store directory, or null if the content store is not enabled
+	 */
+	public Path resolveContentStore(Map<String, String> namedParams, Path cacheDir) {
+		if (namedParams == null) namedParams = Collections.emptyMap();
+
+		String store = namedParams.containsKey("content-store") ? namedParams.get("content-store") : this.contentStore;
+
+		if (store == null || store.isEmpty()) return null;
+
+		if (Paths.get(store).isAbsolute() || store.contains("USERLIB") || store.startsWith("ALLUSERS"))
+			return resolveDirectory(store);
+		return resolveDirectory(cacheDir.resolve(store).toString());
+	}
+
+	/**
+	 * Resolve a directory that may use the <code>USERLIB</code> or <code>ALLUSERS</code> prefixes
+	 * and create it if it does not exist.
+	 */
+	private static Path resolveDirectory(String dir) {
 		Path path;
 
-		if (cacheDir.contains("USERLIB")) {
+		if (dir.contains("USERLIB")) {
 			String replacement;
 			switch (OS.current) {
 				case mac:
 					replacement = Paths.get(System.getProperty("user.home"))
 							.resolve("Library")
 							.resolve("Application Support")
-							.resolve(cacheDir.substring(8))
+							.resolve(dir.substring(8))
 							.toString();
 					break;
 				case win:
 					replacement = Paths.get(System.getProperty("user.home"))
 							.resolve("AppData")
 							.resolve("Local")
-							.resolve(cacheDir.substring(8))
+							.resolve(dir.substring(8))
 							.toString();
 					break;
 				default:
 					replacement = Paths.get(System.getProperty("user.home"))
-							.resolve("." + cacheDir.substring(8))
+							.resolve("." + dir.substring(8))
 							.toString();
 			}
 			path = Paths.get(replacement);
-		} else if (cacheDir.startsWith("ALLUSERS")) {
+		} else if (dir.startsWith("ALLUSERS")) {
 			switch (OS.current) {
 			case mac:
 				path = Paths.get("/Library/Application Support")
-					.resolve(cacheDir.substring(9));
+					.resolve(dir.substring(9));
 				break;
 			case win:
 				path = Paths.get(System.getenv("ALLUSERSPROFILE"))
-					.resolve(cacheDir.substring(9));
+					.resolve(dir.substring(9));
 				break;
 			default:
 				path = Paths.get("/usr/local/share")
-					.resolve(cacheDir.substring(9));
+					.resolve(dir.substring(9));
 			}
 		} else {
-			path = Paths.get(cacheDir);
+			path = Paths.get(dir);
 		}
 
 		if (!Files.exists(path)) {
@@ -181,17 +247,33 @@ public class FXManifest {
 	}
 
 	static FXManifest load(URI uri) throws IOException {
+		return load(uri, null);
+	}
+
+	/**
+	 * Load the manifest. Valid validators from an earlier response are sent along so the
+	 * server can answer that the manifest has not been modified, and they are updated from
+	 * the response.
+	 *
+	 * @return the manifest, or null if the server answered 304 Not Modified
+	 */
+	static FXManifest load(URI uri, HttpValidators validators) throws IOException {
 		if (Objects.equals(uri.getScheme(), "file")) {
-			return JAXB.unmarshal(new File(uri.getPath()), FXManifest.class);
-		}
-		URLConnection connection = uri.toURL().openConnection();
-		if (uri.getUserInfo() != null) {
-			byte[] payload = uri.getUserInfo().getBytes(StandardCharsets.UTF_8);
-			String encoded = Base64.getEncoder().encodeToString(payload);
-			connection.setRequestProperty("Authorization", String.format("Basic %s", encoded));
+			return ManifestXml.read(new File(uri.getPath()).toPath());
 		}
+		Transport transport = Transport.getShared();
+		URLConnection connection = transport.connect(uri);
+		if (validators != null)
+			validators.addTo(connection);
+
+		if (transport.getResponseCode(connection) == HttpURLConnection.HTTP_NOT_MODIFIED)
+			return null;
+
 		try (InputStream input = connection.getInputStream()) {
-			return JAXB.unmarshal(input, FXManifest.class);
+			FXManifest manifest = ManifestXml.read(input);
+			if (validators != null)
+				validators.update(uri, connection, manifest);
+			return manifest;
 		}
 	}
 
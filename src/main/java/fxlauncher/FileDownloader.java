@@ -0,0 +1,755 @@
+package fxlauncher;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads a set of library files into the cache dir using a bounded number of
+ * concurrent transfers. Progress is reported through a {@link ProgressPublisher},
+ * counting the bytes written across all transfers.
+ * <p>
+ * Every file is downloaded from the fastest of the {@link Mirrors}. When a transfer fails
+ * or stalls longer than the read timeout, it continues from the next mirror.
+ * <p>
+ * Files from a <code>file:</code> repository, like a network share or a local mount, are
+ * copied by the kernel with {@link FileChannel#transferTo} instead of through a heap buffer,
+ * or hard linked into the cache dir when <code>linkLocal</code> is set and the repository is
+ * on the same file system.
+ * <p>
+ * A file that is brought up to date is created, in order of preference, from a binary patch,
+ * from the unchanged {@link LibraryChunks} of the cached version and the changed chunks fetched
+ * with range requests, from the compressed variant, or from the full file.
+ */
+class FileDownloader {
+	private static final Logger log = Logger.getLogger("FileDownloader");
+
+	static final int DEFAULT_THREADS = 4;
+	private static final long CANCEL_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+	private static final long LOCAL_CHUNK = 8 * 1024 * 1024;
+
+	private final Transport transport;
+	private final Mirrors mirrors;
+	private final Path cacheDir;
+	private final ChecksumIndex index;
+	private final ContentStore store;
+	private final StagingArea staging;
+	private final int threads;
+	private final boolean stopOnErrors;
+	private final boolean linkLocal;
+	private final Consumer<DownloadProgress> progress;
+	private final RateLimiter limiter;
+	private final LaunchReport report;
+	private ProgressPublisher publisher;
+	private final ThreadLocal<long[]> attemptBytes = ThreadLocal.withInitial(() -> new long[1]);
+
+	FileDownloader(Transport transport, Mirrors mirrors, Path cacheDir, ChecksumIndex index, ContentStore store,
+			StagingArea staging, int threads, boolean stopOnErrors, boolean linkLocal, Consumer<DownloadProgress> progress,
+			RateLimiter limiter, LaunchReport report) {
+		this.transport = transport;
+		this.mirrors = mirrors;
+		this.cacheDir = cacheDir;
+		this.index = index;
+		this.store = store;
+		this.staging = staging;
+		this.threads = Math.max(1, threads);
+		this.stopOnErrors = stopOnErrors;
+		this.linkLocal = linkLocal;
+		this.progress = progress;
+		this.limiter = limiter;
+		this.report = report;
+	}
+
+	/**
+	 * Download all the given files into the staging area. When <code>stopOnErrors</code> is set the first
+	 * failing transfer cancels the remaining ones, otherwise every transfer is
+	 * attempted before the first failure is rethrown. Transfers that are cancelled get a few seconds
+	 * to stop before this returns, so they don't write into the staging area after the caller moved on.
+	 */
+	void download(List<LibraryFile> files) throws Exception {
+		long totalBytes = files.stream().mapToLong(LibraryFile::getTransferSize).sum();
+		publisher = new ProgressPublisher(totalBytes, files.size(), ProgressPublisher.DEFAULT_INTERVAL, progress);
+
+		int poolSize = Math.min(threads, files.size());
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("FXLauncher-Download"));
+		CompletionService<LibraryFile> completion = new ExecutorCompletionService<>(executor);
+		log.info(String.format("Downloading %d files using %d concurrent transfers", files.size(), poolSize));
+
+		try {
+			for (LibraryFile lib : files)
+				completion.submit(() -> {
+					publisher.startFile(lib.file);
+					downloadFile(lib);
+					publisher.fileDone();
+					return lib;
+				});
+
+			Exception failure = null;
+			for (int i = 0; i < files.size(); i++) {
+				try {
+					completion.take().get();
+				} catch (ExecutionException e) {
+					Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					if (stopOnErrors)
+						throw cause;
+					log.log(Level.WARNING, "Download failed", cause);
+					if (failure == null)
+						failure = cause;
+					else
+						failure.addSuppressed(cause);
+				}
+			}
+			if (failure != null)
+				throw failure;
+			publisher.finish();
+		} finally {
+			executor.shutdownNow();
+			awaitTermination(executor);
+			reportRateLimit();
+			if (mirrors.hasMirrors()) {
+				mirrors.logUsage();
+				mirrors.save();
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes counted as done by the last download, the transfer size of its files once it completed
+	 */
+	long getBytesDone() {
+		return publisher != null ? publisher.getBytesDone() : 0;
+	}
+
+	private static void awaitTermination(ExecutorService executor) {
+		try {
+			if (!executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS))
+				log.warning("Cancelled downloads did not stop in time");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void reportRateLimit() {
+		if (limiter == null)
+			return;
+		log.info(String.format("Downloads were limited to %s, %d transfers waited %d ms in total", limiter,
+				limiter.getThrottled(), TimeUnit.NANOSECONDS.toMillis(limiter.getThrottledNanos())));
+		if (report != null)
+			report.rateLimited(limiter.getBytesPerSecond(), limiter.getThrottled(), limiter.getThrottledNanos());
+	}
+
+	private void downloadFile(LibraryFile lib) throws IOException, InterruptedException {
+		Path current = cacheDir.resolve(lib.file).toAbsolutePath();
+		Path target = staging.resolve(lib);
+		Files.createDirectories(target.getParent());
+		long start = System.nanoTime();
+
+		// Left over from an update that was interrupted before activation
+		if (staging.isStaged(lib)) {
+			stagedFile(lib, target);
+			publisher.skipped(lib.getTransferSize());
+			reportTransfer(lib, "staged", null, 0, start);
+			return;
+		}
+
+		if (store != null && store.restore(lib, target)) {
+			stagedFile(lib, target);
+			publisher.skipped(lib.getTransferSize());
+			reportTransfer(lib, "store", null, 0, start);
+			return;
+		}
+
+		List<URI> order = mirrors.getOrder();
+		IOException failure = null;
+		for (int i = 0; i < order.size(); i++) {
+			URI mirror = order.get(i);
+			attemptBytes.get()[0] = 0;
+			try {
+				transfer(lib, mirror, current, target, start);
+				return;
+			} catch (IOException e) {
+				// Cancelled, not a problem of the mirror
+				if (isCancellation(e))
+					throw e;
+				mirrors.failed(mirror);
+				// The part file is kept, but its bytes are counted again when the next mirror resumes it
+				publisher.discarded(attemptBytes.get()[0]);
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+				if (i + 1 < order.size())
+					log.log(Level.WARNING, String.format("Download of %s from %s failed, continuing from %s", lib.file,
+							mirror, order.get(i + 1)), e);
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Bring the file up to date from one mirror, with a patch, the compressed variant or the full file.
+	 */
+	private void transfer(LibraryFile lib, URI mirror, Path current, Path target, long start)
+			throws IOException, InterruptedException {
+
+		// A local copy is cheaper than applying a patch or decompressing
+		if ("file".equals(mirror.getScheme())) {
+			boolean linked = copyLocal(lib, mirror, target);
+			stagedFile(lib, target);
+			reportTransfer(lib, linked ? "link" : "copy", mirror, linked ? 0 : lib.size, start);
+			return;
+		}
+
+		if (lib.patches != null && Files.exists(current)) {
+			LibraryPatch patch = applyPatch(lib, mirror, current, target);
+			if (patch != null) {
+				stagedFile(lib, target);
+				reportTransfer(lib, "patch", mirror, patch.size != null ? patch.size : 0, start);
+				return;
+			}
+		}
+
+		if (lib.chunks != null && Files.exists(current)) {
+			long fetched = applyChunks(lib, mirror, current, target);
+			if (fetched >= 0) {
+				stagedFile(lib, target);
+				reportTransfer(lib, "chunks", mirror, fetched, start);
+				return;
+			}
+		}
+
+		if (lib.isCompressed() && downloadCompressed(lib, mirror, target)) {
+			stagedFile(lib, target);
+			reportTransfer(lib, "compressed", mirror, lib.compressedSize, start);
+			return;
+		}
+
+		// Never write into the target, it may be a hard link to a content store entry
+		PartFile part = new PartFile(lib, target);
+		long offset = part.getResumeOffset();
+		Checksum checksum;
+		long received;
+
+		String previousValidator = part.getValidator();
+
+		try (DownloadStream input = openDownloadStream(resolve(mirror, lib.file), offset, previousValidator)) {
+			if (input.offset > 0) {
+				log.info(String.format("Resuming download of %s at byte %d", lib.file, input.offset));
+				checksum = part.checksumResumed(input.offset);
+				skipped(scaled(lib, input.offset));
+			} else {
+				checksum = lib.getChecksumAlgorithm().create();
+			}
+
+			String validator = input.validator == null && input.offset > 0 ? previousValidator : input.validator;
+			try (OutputStream output = part.open(input.offset, validator)) {
+				copy(lib, input, output, checksum, input.offset, true);
+			}
+			received = lib.size - input.offset;
+		}
+
+		if (!lib.matches(checksum)) {
+			// A corrupt part file must not be resumed
+			part.discard();
+			throw new IOException(String.format("Checksum mismatch for downloaded file %s", lib.file));
+		}
+		part.complete(target);
+		stagedFile(lib, target);
+		reportTransfer(lib, "download", mirror, received, start);
+	}
+
+	/**
+	 * Copy the file from a repository on a local or mounted file system. The copy is verified
+	 * like a download before it is staged.
+	 *
+	 * @return true if the file was hard linked, false if it was copied
+	 */
+	private boolean copyLocal(LibraryFile lib, URI mirror, Path target) throws IOException, InterruptedException {
+		Path source = new File(resolve(mirror, lib.file).getPath()).toPath();
+		long size = Files.size(source);
+		if (size != lib.size)
+			throw new IOException(String.format("Size mismatch for %s, expected %d bytes but found %d", source, lib.size, size));
+
+		Path copy = target.resolveSibling(target.getFileName() + ".download");
+		try {
+			Files.deleteIfExists(copy);
+			boolean linked = linkLocal && link(source, copy);
+			if (linked)
+				skipped(lib.getTransferSize());
+			else
+				transferLocal(lib, source, copy);
+
+			if (!lib.matches(copy))
+				throw new IOException(String.format("Checksum mismatch for %s", source));
+			Files.move(copy, target, StandardCopyOption.REPLACE_EXISTING);
+			return linked;
+		} finally {
+			try {
+				Files.deleteIfExists(copy);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Hard link the file, which only works when the repository is on the same file system.
+	 */
+	private static boolean link(Path source, Path target) {
+		try {
+			Files.createLink(target, source);
+			return true;
+		} catch (UnsupportedOperationException | IOException e) {
+			log.log(Level.FINE, String.format("Unable to link %s, copying it", source), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Copy in chunks, so the progress is updated while large files are copied. The rate limit is meant
+	 * for the network and does not slow down local copies.
+	 */
+	private void transferLocal(LibraryFile lib, Path source, Path copy) throws IOException, InterruptedException {
+		try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+			 FileChannel output = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					 StandardOpenOption.WRITE)) {
+			long size = input.size();
+			long counted = 0;
+			for (long position = 0; position < size; ) {
+				if (Thread.interrupted())
+					throw new InterruptedException(String.format("Download of %s was cancelled", lib.file));
+				long copied = input.transferTo(position, Math.min(LOCAL_CHUNK, size - position), output);
+				if (copied <= 0)
+					throw new IOException(String.format("Unable to copy %s", source));
+				position += copied;
+				long done = scaled(lib, position);
+				transferred(done - counted);
+				counted = done;
+			}
+		}
+	}
+
+	/**
+	 * Create the new version of the file from the chunks of the current file that did not change
+	 * and the changed chunks, which are fetched with one range request per run of adjacent chunks.
+	 * The result is verified against the checksum of the whole file.
+	 *
+	 * @return the number of bytes fetched, or -1 if the file must be downloaded instead
+	 */
+	private long applyChunks(LibraryFile lib, URI mirror, Path current, Path target)
+			throws InterruptedException, InterruptedIOException {
+		Path assembled = target.resolveSibling(target.getFileName() + ".chunked");
+		long counted = attemptBytes.get()[0];
+		try {
+			LibraryChunks chunks = lib.chunks;
+			if (!chunks.covers(lib.size))
+				throw new IOException(String.format("The chunks of %s don't cover its size", lib.file));
+
+			long[] expected = chunks.getChecksums();
+			long[] actual = LibraryChunks.checksums(current, chunks.size, lib.getChecksumAlgorithm());
+			long currentSize = Files.size(current);
+			List<long[]> ranges = new ArrayList<>();
+			long fetch = 0;
+			for (int i = 0; i < expected.length; i++) {
+				long first = i * chunks.size;
+				long end = Math.min(lib.size, first + chunks.size);
+				if (i < actual.length && actual[i] == expected[i] && currentSize >= end)
+					continue;
+				long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+				if (last != null && last[1] == first)
+					last[1] = end;
+				else
+					ranges.add(new long[]{first, end});
+				fetch += end - first;
+			}
+			if (fetch >= lib.getTransferSize())
+				return -1;
+
+			log.info(String.format("Updating %d changed bytes of %s in %d ranges (%d bytes unchanged)", fetch, lib.file,
+					ranges.size(), lib.size - fetch));
+			try (FileChannel source = FileChannel.open(current, StandardOpenOption.READ);
+				 FileChannel output = FileChannel.open(assembled, StandardOpenOption.CREATE,
+						 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				long position = 0;
+				long reported = 0;
+				for (long[] range : ranges) {
+					copyChunks(source, position, range[0], output);
+					reported = reportChunks(lib, range[0], reported, false);
+					fetchRange(lib, mirror, range[0], range[1], output);
+					reported = reportChunks(lib, range[1], reported, true);
+					position = range[1];
+				}
+				copyChunks(source, position, lib.size, output);
+				reportChunks(lib, lib.size, reported, false);
+			}
+
+			if (!lib.matches(assembled))
+				throw new IOException(String.format("Checksum mismatch after updating the chunks of %s", lib.file));
+			Files.move(assembled, target, StandardCopyOption.REPLACE_EXISTING);
+			return fetch;
+		} catch (IOException e) {
+			if (isCancellation(e))
+				throw (InterruptedIOException) e;
+			log.log(Level.WARNING, String.format("Unable to update the changed chunks of %s, downloading the file", lib.file), e);
+			// The bytes are counted again by the download
+			publisher.discarded(attemptBytes.get()[0] - counted);
+			attemptBytes.get()[0] = counted;
+			return -1;
+		} finally {
+			try {
+				Files.deleteIfExists(assembled);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static void copyChunks(FileChannel source, long position, long end, FileChannel output) throws IOException {
+		while (position < end) {
+			long copied = source.transferTo(position, end - position, output);
+			if (copied <= 0)
+				throw new IOException("The cached file ended early");
+			position += copied;
+		}
+	}
+
+	/**
+	 * Count the progress up to <code>position</code> of the file, as transferred when the bytes were
+	 * fetched and as skipped when they were copied from the cached file.
+	 */
+	private long reportChunks(LibraryFile lib, long position, long reported, boolean fetched) {
+		long done = scaled(lib, position);
+		if (fetched)
+			transferred(done - reported);
+		else
+			skipped(done - reported);
+		return done;
+	}
+
+	private void fetchRange(LibraryFile lib, URI mirror, long first, long end, FileChannel output)
+			throws IOException, InterruptedException {
+		URLConnection connection = transport.connect(resolve(mirror, lib.file));
+		connection.setRequestProperty("Range", String.format("bytes=%d-%d", first, end - 1));
+		int code = transport.getResponseCode(connection);
+		String contentRange = connection.getHeaderField("Content-Range");
+		try (InputStream input = connection.getInputStream()) {
+			if (code != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+					|| !contentRange.startsWith(String.format("bytes %d-%d/", first, end - 1)))
+				throw new IOException(String.format("Server ignored the range request for %s", lib.file));
+
+			byte[] buf = new byte[65536];
+			ByteBuffer buffer = ByteBuffer.wrap(buf);
+			long remaining = end - first;
+			int read;
+			while (remaining > 0 && (read = input.read(buf, 0, (int) Math.min(buf.length, remaining))) > -1) {
+				if (Thread.interrupted())
+					throw new InterruptedException(String.format("Download of %s was cancelled", lib.file));
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining())
+					output.write(buffer);
+				remaining -= read;
+				throttle(read);
+			}
+			if (remaining > 0)
+				throw new IOException(String.format("Range of %s ended after %d of %d bytes", lib.file, end - first - remaining,
+						end - first));
+		}
+	}
+
+	/**
+	 * Progress is measured in transfer size, which is smaller than the file for compressed files.
+	 */
+	private static long scaled(LibraryFile lib, long bytes) {
+		long transferSize = lib.getTransferSize();
+		if (transferSize == lib.size)
+			return bytes;
+		return lib.size > 0 ? (long) ((double) bytes / lib.size * transferSize) : 0;
+	}
+
+	private void reportTransfer(LibraryFile lib, String source, URI mirror, long bytes, long start) {
+		long nanos = System.nanoTime() - start;
+		if (mirror != null) {
+			mirrors.transferred(mirror, bytes, nanos);
+			if (mirrors.hasMirrors())
+				log.fine(String.format("Downloaded %s from mirror %s", lib.file, mirror));
+		}
+		if (report != null)
+			report.transferred(lib.file, source, mirror != null ? mirror.toString() : null, bytes, nanos);
+	}
+
+	/**
+	 * Download the compressed variant of the file and decompress it on the fly. The checksum is
+	 * verified against the decompressed content. Compressed downloads are not resumed.
+	 *
+	 * @return true if the file was downloaded, false if the uncompressed file must be downloaded instead
+	 */
+	private boolean downloadCompressed(LibraryFile lib, URI mirror, Path target)
+			throws InterruptedException, InterruptedIOException {
+		Path download = target.resolveSibling(target.getFileName() + ".download");
+		long counted = attemptBytes.get()[0];
+		try {
+			Checksum checksum = lib.getChecksumAlgorithm().create();
+			try (InputStream input = new GZIPInputStream(new ProgressInputStream(openDownloadStream(resolve(mirror, lib.getCompressedFile()))), 65536);
+				 OutputStream output = Files.newOutputStream(download)) {
+				copy(lib, input, output, checksum, 0, false);
+			}
+			if (!lib.matches(checksum))
+				throw new IOException(String.format("Checksum mismatch for decompressed file %s", lib.file));
+
+			Files.move(download, target, StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			if (isCancellation(e))
+				throw (InterruptedIOException) e;
+			log.log(Level.WARNING, String.format("Unable to download compressed %s, downloading the full file", lib.file), e);
+			// The bytes are counted again by the download
+			publisher.discarded(attemptBytes.get()[0] - counted);
+			attemptBytes.get()[0] = counted;
+			return false;
+		} finally {
+			try {
+				Files.deleteIfExists(download);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * @param offset the position of the input in the file
+	 * @param countProgress count the bytes towards the progress, scaled to the transfer size of the file, and
+	 *                      towards the rate limit. The input is read from the network.
+	 */
+	private void copy(LibraryFile lib, InputStream input, OutputStream output, Checksum checksum, long offset,
+			boolean countProgress) throws IOException, InterruptedException {
+		byte[] buf = new byte[65536];
+		long position = offset;
+		long counted = scaled(lib, offset);
+
+		int read;
+		while ((read = input.read(buf)) > -1) {
+			if (Thread.interrupted())
+				throw new InterruptedException(String.format("Download of %s was cancelled", lib.file));
+			output.write(buf, 0, read);
+			checksum.update(buf, 0, read);
+			position += read;
+			if (countProgress) {
+				long done = scaled(lib, position);
+				transferred(done - counted);
+				counted = done;
+				throttle(read);
+			}
+		}
+	}
+
+	/**
+	 * Record a verified file in the staging area. The index entry stays valid when the file is moved into
+	 * the cache dir on activation, so the file is not read again on the next start.
+	 */
+	private void stagedFile(LibraryFile lib, Path staged) throws IOException {
+		index.put(lib.file, Files.readAttributes(staged, BasicFileAttributes.class), lib.getChecksumAlgorithm(), lib.checksum);
+		if (store != null)
+			store.add(lib, staged);
+	}
+
+	/**
+	 * Try to create the new version of the file by applying a binary patch published
+	 * for the checksum of the current file.
+	 *
+	 * @return the patch that was applied, or null if the full file must be downloaded
+	 */
+	private LibraryPatch applyPatch(LibraryFile lib, URI mirror, Path current, Path target) throws InterruptedIOException {
+		Path patched = target.resolveSibling(target.getFileName() + ".patched");
+		long counted = attemptBytes.get()[0];
+		try {
+			ChecksumAlgorithm algorithm = lib.getChecksumAlgorithm();
+			Long baseChecksum = index.getChecksum(lib.file, Files.readAttributes(current, BasicFileAttributes.class), algorithm);
+			if (baseChecksum == null)
+				baseChecksum = LibraryFile.checksum(current, algorithm).getValue();
+
+			LibraryPatch patch = lib.findPatch(baseChecksum);
+			if (patch == null)
+				return null;
+
+			Checksum checksum = algorithm.create();
+			try (InputStream input = new ProgressInputStream(openDownloadStream(resolve(mirror, patch.file)));
+				 OutputStream output = new CheckedOutputStream(Files.newOutputStream(patched), checksum)) {
+				DeltaPatch.apply(current, input, output);
+			}
+			if (!lib.matches(checksum))
+				throw new IOException("Checksum mismatch after applying patch");
+
+			Files.move(patched, target, StandardCopyOption.REPLACE_EXISTING);
+
+			// The bytes that did not have to be downloaded count as done
+			if (patch.size != null)
+				skipped(Math.max(0, lib.getTransferSize() - patch.size));
+			log.info(String.format("Updated %s with patch %s (%d bytes instead of %d)", lib.file, patch.file, patch.size,
+					lib.size));
+			return patch;
+		} catch (IOException e) {
+			if (isCancellation(e))
+				throw (InterruptedIOException) e;
+			log.log(Level.WARNING, String.format("Unable to patch %s, downloading the full file", lib.file), e);
+			// The bytes are counted again by the download
+			publisher.discarded(attemptBytes.get()[0] - counted);
+			attemptBytes.get()[0] = counted;
+			try {
+				Files.deleteIfExists(patched);
+			} catch (IOException ignored) {
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the transfer failed because it was cancelled, rather than because of the mirror or the file
+	 */
+	private static boolean isCancellation(IOException e) {
+		return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+	}
+
+	private static URI resolve(URI mirror, String file) {
+		// We avoid using uri.resolve() here so as to not break UNC paths. See issue
+		// #143
+		String separator = mirror.getPath().endsWith("/") ? "" : "/";
+		return URI.create(mirror.toString() + separator + file);
+	}
+
+	/**
+	 * Count bytes that were transferred towards the progress.
+	 */
+	private void transferred(long bytes) {
+		attemptBytes.get()[0] += bytes;
+		publisher.transferred(bytes);
+	}
+
+	/**
+	 * Wait as long as the rate limit requires for bytes that were just read from the network.
+	 * Copies from a repository on the file system are not limited.
+	 */
+	private void throttle(long bytes) throws InterruptedIOException {
+		if (limiter != null) {
+			try {
+				limiter.acquire(bytes);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Download was cancelled while waiting for the rate limit");
+			}
+		}
+	}
+
+	private void skipped(long bytes) {
+		attemptBytes.get()[0] += bytes;
+		publisher.skipped(bytes);
+	}
+
+	private InputStream openDownloadStream(URI uri) throws IOException {
+		return transport.open(uri);
+	}
+
+	/**
+	 * Open the content of the uri, asking for it to start at <code>offset</code>. The
+	 * returned stream tells where the content actually starts, which is 0 when the
+	 * server ignores the range or the content changed since <code>validator</code>
+	 * was received. <code>file:</code> mirrors never get here, they are copied by
+	 * {@link #copyLocal}.
+	 */
+	private DownloadStream openDownloadStream(URI uri, long offset, String validator) throws IOException {
+		URLConnection connection = transport.connect(uri);
+		if (offset > 0) {
+			connection.setRequestProperty("Range", String.format("bytes=%d-", offset));
+			if (validator != null)
+				connection.setRequestProperty("If-Range", validator);
+		}
+
+		int code = transport.getResponseCode(connection);
+		InputStream input = connection.getInputStream();
+		String etag = connection.getHeaderField("ETag");
+		String newValidator = etag != null ? etag : connection.getHeaderField("Last-Modified");
+
+		String contentRange = connection.getHeaderField("Content-Range");
+		boolean partial = code == HttpURLConnection.HTTP_PARTIAL && contentRange != null
+				&& contentRange.startsWith(String.format("bytes %d-", offset));
+		if (offset > 0 && !partial)
+			log.info(String.format("Server ignored range request for %s, downloading the full file", uri));
+
+		return new DownloadStream(input, partial ? offset : 0, newValidator);
+	}
+
+	/**
+	 * The content of a download, which starts at <code>offset</code> of the remote file.
+	 */
+	private static class DownloadStream extends FilterInputStream {
+		final long offset;
+		final String validator;
+
+		DownloadStream(InputStream in, long offset, String validator) {
+			super(in);
+			this.offset = offset;
+			this.validator = validator;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the wrapped network stream towards the download progress and the
+	 * rate limit, and stops reading when the transfer is cancelled.
+	 */
+	private class ProgressInputStream extends FilterInputStream {
+		ProgressInputStream(InputStream in) {
+			super(in);
+		}
+
+		private void checkCancelled() throws InterruptedIOException {
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("Download was cancelled");
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkCancelled();
+			int b = super.read();
+			if (b >= 0) {
+				transferred(1);
+				throttle(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkCancelled();
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				transferred(read);
+				throttle(read);
+			}
+			return read;
+		}
+	}
+}
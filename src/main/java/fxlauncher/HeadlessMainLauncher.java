@@ -1,23 +1,45 @@
 package fxlauncher;
 
+import java.io.File;
 import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class HeadlessMainLauncher extends AbstractLauncher<Object> {
 	private static final Logger log = Logger.getLogger("HeadlessMainLauncher");
 
+	/**
+	 * Passed to the JVM that is relaunched for class data sharing: the manifest the launcher synced,
+	 * and whether a background update is due. The relaunched JVM neither syncs nor relaunches.
+	 */
+	private static final String CDS_MANIFEST = "cds-manifest";
+	private static final String CDS_BACKGROUND_UPDATE = "--cds-background-update";
+
 	private LauncherParams parameters;
+	// The command line, without the parameters of the manifest that are merged into the parameters
+	private final List<String> commandLine;
+	private boolean relaunched;
 
 	private Class<?> appClass;
+	private int loggedPercent = -1;
 
 	public HeadlessMainLauncher(LauncherParams parameters) {
 		this.parameters = parameters;
+		this.commandLine = new ArrayList<>(parameters.getRaw());
 	}
 
 	public static void main(String[] args) throws Exception {
+		Transport.configureKeepAlive(args);
 		List<String> mainArgs = Arrays.asList(args);
 
 		LauncherParams parameters = new LauncherParams(mainArgs);
@@ -27,7 +49,12 @@ public class HeadlessMainLauncher extends AbstractLauncher<Object> {
 	}
 
 	protected void process() throws Exception {
-		syncManifest();
+		String syncedManifest = parameters.getNamed().get(CDS_MANIFEST);
+		relaunched = syncedManifest != null;
+		if (relaunched)
+			useSyncedManifest(Paths.get(syncedManifest), parameters.getUnnamed().contains(CDS_BACKGROUND_UPDATE));
+		else
+			syncManifest();
 
 		// replace parameters to deal with manifest settings
 		parameters = new LauncherParams(parameters, getManifest());
@@ -35,14 +62,74 @@ public class HeadlessMainLauncher extends AbstractLauncher<Object> {
 		setupLogFile();
 		checkSSLIgnoreflag();
 
-		updateManifest();
+		if (!relaunched) {
+			updateManifest();
+
+			syncFiles();
+
+			if (isRelay()) {
+				relay();
+				return;
+			}
 
-		syncFiles();
+			// The relaunched JVM creates the application environment and runs the background update
+			if (useClassDataSharing()) {
+				System.exit(relaunchWithClassDataSharing());
+			}
+		}
 
 		createApplicationEnvironment();
+		startBackgroundUpdate();
 		launchApp();
 	}
 
+	/**
+	 * Relay mode is enabled with the <code>--relay=port</code> parameter. The launcher keeps the
+	 * files of all platforms in its cache dir and serves them to other launchers instead of
+	 * starting the application.
+	 */
+	private boolean isRelay() {
+		return getParameters().getNamed().containsKey("relay");
+	}
+
+	@Override
+	protected boolean shouldSync(LibraryFile lib) {
+		return isRelay() || super.shouldSync(lib);
+	}
+
+	/**
+	 * Serve the cache dir until the process is stopped, and sync it with the repository every
+	 * <code>--relay-interval</code> seconds. Clients point <code>--uri</code> at the relay.
+	 */
+	private void relay() throws Exception {
+		Path cacheDir = getManifest().resolveCacheDir(getParameters().getNamed());
+		int port = Integer.parseInt(getParameters().getNamed().get("relay"));
+		String address = getParameters().getNamed().get("relay-address");
+		long interval = getIntSetting("relay-interval", null, 300);
+		int threads = getIntSetting("relay-threads", null, RelayServer.DEFAULT_THREADS);
+		String uri = getParameters().getNamed().get("relay-uri");
+
+		RelayServer relay = new RelayServer(cacheDir,
+				address != null ? new InetSocketAddress(address, port) : new InetSocketAddress(port),
+				uri != null ? URI.create(uri) : null, threads);
+		relay.setManifest(getManifest());
+		relay.start();
+		finishLaunchReport();
+		log.info(String.format("Relaying %s from %s on %s as %s", getManifest().uri, cacheDir, relay.getAddress(), relay.getUri()));
+
+		while (true) {
+			TimeUnit.SECONDS.sleep(interval);
+			try {
+				updateManifest();
+				syncFiles();
+				relay.setManifest(getManifest());
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Relay sync failed, serving the previous release", e);
+			}
+			log.info(String.format("Relay served %d requests and %d bytes", relay.getRequests(), relay.getBytesSent()));
+		}
+	}
+
 	public LauncherParams getParameters() {
 		return parameters;
 	}
@@ -52,6 +139,16 @@ public class HeadlessMainLauncher extends AbstractLauncher<Object> {
 		log.info(String.format("Progress: %d%%", (int) (progress * 100)));
 	}
 
+	@Override
+	protected void updateProgress(DownloadProgress progress) {
+		// One line per percent is plenty for a log
+		int percent = (int) (progress.getProgress() * 100);
+		if (percent == loggedPercent)
+			return;
+		loggedPercent = percent;
+		log.info(String.format("Progress: %s", progress));
+	}
+
 	@Override
 	protected void createApplication(Class<Object> appClass) {
 		this.appClass = appClass;
@@ -59,15 +156,87 @@ public class HeadlessMainLauncher extends AbstractLauncher<Object> {
 
 	private void launchApp() throws Exception {
 		setPhase("Application Start");
+		// The launcher that synced the files reported the launch
+		if (!relaunched)
+			finishLaunchReport();
 
 		Method mainMethod = appClass.getMethod("main", String[].class);
 		mainMethod.invoke(null, (Object) new String[0]);
 	}
 
+	/**
+	 * Class data sharing is enabled with the <code>--app-cds</code> parameter. It needs Java 13 or
+	 * later, and is not used when the manifest preloads native libraries into the launcher JVM.
+	 */
+	private boolean useClassDataSharing() {
+		if (!getParameters().getUnnamed().contains("--app-cds"))
+			return false;
+		if (!ClassDataSharing.isSupported()) {
+			log.info(String.format("Class data sharing needs Java 13 or later, running on Java %d", ClassDataSharing.getJavaVersion()));
+			return false;
+		}
+		if (!getManifest().getPreloadNativeLibraryList().isEmpty()) {
+			log.info("Class data sharing is not used because native libraries are preloaded");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run the launcher again in a new JVM with the cached files on the classpath, so the classes of
+	 * the application can be archived and shared between launches. The new JVM starts the application
+	 * with the manifest synced here, and runs the background update.
+	 *
+	 * @return the exit code of the application
+	 */
+	private int relaunchWithClassDataSharing() throws Exception {
+		setPhase("Application Start");
+		finishLaunchReport();
+
+		Path cacheDir = getManifest().resolveCacheDir(getParameters().getNamed());
+		// The launcher itself and what it was started with come after the application
+		List<String> classpath = getManifest().files.stream().filter(LibraryFile::loadForCurrentPlatform)
+				.map(lib -> cacheDir.resolve(lib.file).toAbsolutePath().toString())
+				.collect(Collectors.toList());
+		classpath.add(System.getProperty("java.class.path"));
+
+		Path syncedManifest = Files.createTempFile("fxlauncher-manifest", ".xml");
+		try {
+			ManifestXml.write(getManifest(), syncedManifest);
+
+			List<String> command = new ArrayList<>();
+			command.add(ClassDataSharing.getJavaCommand());
+			command.addAll(ClassDataSharing.getInheritedJvmOptions());
+			command.addAll(new ClassDataSharing(cacheDir, getManifest()).getJvmOptions());
+			command.add("-cp");
+			command.add(String.join(File.pathSeparator, classpath));
+			command.add(HeadlessMainLauncher.class.getName());
+			// The relaunched JVM merges the parameters of the manifest itself
+			command.addAll(commandLine);
+			command.add(String.format("--%s=%s", CDS_MANIFEST, syncedManifest.toAbsolutePath()));
+			if (isBackgroundUpdate())
+				command.add(CDS_BACKGROUND_UPDATE);
+
+			log.info(String.format("Relaunching %s with class data sharing", getManifest().launchClass));
+			return new ProcessBuilder(command).inheritIO().start().waitFor();
+		} finally {
+			Files.deleteIfExists(syncedManifest);
+		}
+	}
+
 	protected void reportError(String title, Throwable error) {
 		log.log(Level.SEVERE, title, error);
 	}
 
+	/**
+	 * The relaunched JVM has the cached files on its classpath, the application is loaded from there
+	 * so its classes are archived.
+	 */
+	@Override
+	protected ClassLoader createClassLoader(Path cacheDir) {
+		return relaunched ? ClassLoader.getSystemClassLoader() : super.createClassLoader(cacheDir);
+	}
+
 	@Override
 	protected void setupClassLoader(ClassLoader classLoader) {
 	}
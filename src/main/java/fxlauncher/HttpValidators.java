@@ -0,0 +1,90 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The <code>ETag</code> and <code>Last-Modified</code> values of the last manifest received
+ * from the server. They are sent back with the next request so the server can answer
+ * <code>304 Not Modified</code> instead of sending the manifest again.
+ */
+class HttpValidators {
+	private static final Logger log = Logger.getLogger("HttpValidators");
+
+	String uri;
+	String etag;
+	String lastModified;
+	Long ts;
+
+	/**
+	 * The validators stored next to the cached manifest, or empty validators if there are none.
+	 */
+	static HttpValidators load(Path path) {
+		HttpValidators validators = new HttpValidators();
+		if (!Files.exists(path))
+			return validators;
+
+		Properties props = new Properties();
+		try (InputStream input = Files.newInputStream(path)) {
+			props.load(input);
+			validators.uri = props.getProperty("uri");
+			validators.etag = props.getProperty("etag");
+			validators.lastModified = props.getProperty("last-modified");
+			String ts = props.getProperty("ts");
+			validators.ts = ts != null ? Long.valueOf(ts) : null;
+		} catch (IOException | NumberFormatException e) {
+			log.log(Level.FINE, String.format("Ignoring unreadable validators %s", path), e);
+			return new HttpValidators();
+		}
+		return validators;
+	}
+
+	void save(Path path) {
+		Properties props = new Properties();
+		if (uri != null) props.setProperty("uri", uri);
+		if (etag != null) props.setProperty("etag", etag);
+		if (lastModified != null) props.setProperty("last-modified", lastModified);
+		if (ts != null) props.setProperty("ts", String.valueOf(ts));
+		try {
+			AtomicFiles.write(path, temp -> {
+				try (OutputStream output = Files.newOutputStream(temp)) {
+					props.store(output, "fxlauncher manifest validators");
+				}
+			});
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to save validators %s", path), e);
+		}
+	}
+
+	/**
+	 * The validators may only be sent when they were received for the same uri and the local manifest
+	 * is the version that was received with them. Otherwise a 304 would hide a version that was never
+	 * activated locally.
+	 */
+	boolean isValidFor(URI uri, Long localTs) {
+		return uri.toString().equals(this.uri) && ts != null && ts.equals(localTs)
+				&& (etag != null || lastModified != null);
+	}
+
+	void addTo(URLConnection connection) {
+		if (etag != null)
+			connection.setRequestProperty("If-None-Match", etag);
+		if (lastModified != null)
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+	}
+
+	void update(URI uri, URLConnection connection, FXManifest manifest) {
+		this.uri = uri.toString();
+		this.etag = connection.getHeaderField("ETag");
+		this.lastModified = connection.getHeaderField("Last-Modified");
+		this.ts = manifest.ts;
+	}
+}
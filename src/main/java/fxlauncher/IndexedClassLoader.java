@@ -0,0 +1,231 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Class loader for applications with many jars. Classes and resources are looked up only in
+ * the jars that the {@link ClassIndex} lists for their directory, instead of probing every
+ * jar of the classpath in turn. Entries that are not indexed are searched by
+ * {@link URLClassLoader}, and a lookup returns the entry that comes first on the classpath,
+ * indexed or not, like a URLClassLoader for the whole classpath does.
+ * <p>
+ * The class loader is parallel capable, so classes loaded from different threads during
+ * application startup do not wait for each other.
+ */
+public class IndexedClassLoader extends URLClassLoader {
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private final URL[] classpath;
+	private final ClassIndex index;
+	private final URL[] jarUrls;
+	private final URL[] unindexedUrls;
+	private final JarFile[] jars;
+
+	IndexedClassLoader(List<URL> classpath, ClassIndex index, ClassLoader parent) {
+		super(toURLs(index.unindexed), parent);
+		this.classpath = classpath.toArray(new URL[classpath.size()]);
+		this.index = index;
+		this.jarUrls = toURLs(index.jars);
+		this.unindexedUrls = toURLs(index.unindexed);
+		this.jars = new JarFile[index.jars.size()];
+	}
+
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String path = name.replace('.', '/').concat(".class");
+		for (int i : index.getJars(ClassIndex.directory(path))) {
+			try {
+				JarFile jar = getJar(i);
+				JarEntry entry = jar.getJarEntry(path);
+				if (entry != null) {
+					if (findUnindexedBefore(path, i) != null)
+						break;
+					return defineClass(name, i, jar, entry);
+				}
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		return super.findClass(name);
+	}
+
+	private Class<?> defineClass(String name, int jarIndex, JarFile jar, JarEntry entry) throws IOException {
+		byte[] bytes = read(jar, entry);
+
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			definePackageIfAbsent(name.substring(0, dot), jar.getManifest(), jarUrls[jarIndex]);
+
+		// Code signers are known once the entry has been read completely
+		return defineClass(name, bytes, 0, bytes.length, new CodeSource(jarUrls[jarIndex], entry.getCodeSigners()));
+	}
+
+	@SuppressWarnings("deprecation")
+	private void definePackageIfAbsent(String name, Manifest manifest, URL url) {
+		if (getPackage(name) != null)
+			return;
+		try {
+			if (manifest != null)
+				definePackage(name, manifest, url);
+			else
+				definePackage(name, null, null, null, null, null, null, null);
+		} catch (IllegalArgumentException e) {
+			// Defined concurrently by another thread
+		}
+	}
+
+	public URL findResource(String name) {
+		for (int i : index.getJars(ClassIndex.directory(name))) {
+			URL url = findEntry(i, name);
+			if (url != null) {
+				URL earlier = findUnindexedBefore(name, i);
+				return earlier != null ? earlier : url;
+			}
+		}
+		return super.findResource(name);
+	}
+
+	public Enumeration<URL> findResources(String name) throws IOException {
+		List<URL> unindexed = Collections.list(super.findResources(name));
+		List<URL> found = new ArrayList<>();
+		int next = 0;
+		for (int i : index.getJars(ClassIndex.directory(name))) {
+			URL url = findEntry(i, name);
+			if (url == null)
+				continue;
+			while (next < unindexed.size() && unindexedPosition(unindexed.get(next)) < index.jarPositions[i])
+				found.add(unindexed.get(next++));
+			found.add(url);
+		}
+		found.addAll(unindexed.subList(next, unindexed.size()));
+		return Collections.enumeration(found);
+	}
+
+	/**
+	 * @return the entry from an unindexed directory or jar that comes before the indexed jar on the
+	 * classpath, or null
+	 */
+	private URL findUnindexedBefore(String name, int jarIndex) {
+		int position = index.jarPositions[jarIndex];
+		if (unindexedUrls.length == 0 || index.unindexedPositions[0] > position)
+			return null;
+		URL url = super.findResource(name);
+		return url != null && unindexedPosition(url) < position ? url : null;
+	}
+
+	/**
+	 * @return the classpath position of the unindexed directory or jar that a URL found by
+	 * {@link URLClassLoader} points into
+	 */
+	private int unindexedPosition(URL url) {
+		String found = url.toExternalForm();
+		int position = Integer.MAX_VALUE;
+		int longest = -1;
+		for (int i = 0; i < unindexedUrls.length; i++) {
+			String base = unindexedUrls[i].toExternalForm();
+			// Nested directories both match, the entry is in the innermost one
+			if ((found.startsWith(base) || found.startsWith("jar:" + base + "!/")) && base.length() > longest) {
+				longest = base.length();
+				position = index.unindexedPositions[i];
+			}
+		}
+		return position;
+	}
+
+	private URL findEntry(int jarIndex, String name) {
+		try {
+			if (getJar(jarIndex).getEntry(name) == null)
+				return null;
+			return new URL("jar:" + jarUrls[jarIndex].toExternalForm() + "!/" + encode(name));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public URL[] getURLs() {
+		return classpath.clone();
+	}
+
+	private JarFile getJar(int jarIndex) throws IOException {
+		synchronized (jars) {
+			if (jars[jarIndex] == null)
+				jars[jarIndex] = new JarFile(index.jars.get(jarIndex).toFile());
+			return jars[jarIndex];
+		}
+	}
+
+	public void close() throws IOException {
+		super.close();
+		synchronized (jars) {
+			for (int i = 0; i < jars.length; i++) {
+				if (jars[i] != null) {
+					jars[i].close();
+					jars[i] = null;
+				}
+			}
+		}
+	}
+
+	private static byte[] read(JarFile jar, JarEntry entry) throws IOException {
+		try (InputStream input = jar.getInputStream(entry)) {
+			byte[] bytes = new byte[entry.getSize() >= 0 ? (int) entry.getSize() : 8192];
+			int length = 0;
+			int read;
+			while ((read = input.read(bytes, length, bytes.length - length)) > -1) {
+				length += read;
+				if (length == bytes.length) {
+					int next = input.read();
+					if (next < 0)
+						break;
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+					bytes[length++] = (byte) next;
+				}
+			}
+			return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+		}
+	}
+
+	/**
+	 * Percent encode the characters of an entry name that are not allowed in the path of a URL.
+	 */
+	private static String encode(String name) {
+		StringBuilder encoded = new StringBuilder(name.length());
+		for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xff);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "/-._~$&+,;=:@".indexOf(c) >= 0)
+				encoded.append(c);
+			else
+				encoded.append(String.format("%%%02X", (int) c));
+		}
+		return encoded.toString();
+	}
+
+	private static URL[] toURLs(List<Path> paths) {
+		URL[] urls = new URL[paths.size()];
+		for (int i = 0; i < urls.length; i++) {
+			try {
+				urls[i] = paths.get(i).toUri().toURL();
+			} catch (MalformedURLException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return urls;
+	}
+}
@@ -0,0 +1,356 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and transfer statistics of one launch. Every phase of the launcher is timed with
+ * {@link System#nanoTime()}, and the files that were verified and downloaded are counted, so
+ * a slow start can be attributed to the network, the disk or the application itself.
+ * <p>
+ * The report is written as JSON to <code>fxlauncher-report.json</code> in the cache dir when
+ * the application has been started, and is available from {@link Launcher#getLaunchReport()}
+ * or {@link AbstractLauncher#getLaunchReport()}.
+ */
+public class LaunchReport {
+	public static final String FILENAME = "fxlauncher-report.json";
+
+	private final long startedAt = System.currentTimeMillis();
+	private final long start = System.nanoTime();
+	private final List<Phase> phases = new ArrayList<>();
+	private final List<Transfer> transfers = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicLong filesTrusted = new AtomicLong();
+	private final AtomicLong filesVerified = new AtomicLong();
+	private final AtomicLong bytesVerified = new AtomicLong();
+	private final AtomicLong verifyNanos = new AtomicLong();
+	private final AtomicLong filesDownloaded = new AtomicLong();
+	private final AtomicLong bytesDownloaded = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+	private volatile long rateLimit;
+	private volatile Long version;
+	private volatile long duration = -1;
+
+	/**
+	 * The duration of a named launcher phase.
+	 */
+	public static class Phase {
+		private final String name;
+		private final long start;
+		private long duration = -1;
+
+		Phase(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the start of the phase in nanoseconds after the launcher started
+		 */
+		public long getStartNanos() {
+			return start;
+		}
+
+		/**
+		 * @return the duration in nanoseconds, or -1 if the phase has not ended
+		 */
+		public long getDurationNanos() {
+			return duration;
+		}
+	}
+
+	/**
+	 * A file that was brought up to date, and where it came from.
+	 */
+	public static class Transfer {
+		private final String file;
+		private final String source;
+		private final String mirror;
+		private final long bytes;
+		private final long duration;
+
+		Transfer(String file, String source, String mirror, long bytes, long duration) {
+			this.file = file;
+			this.source = source;
+			this.mirror = mirror;
+			this.bytes = bytes;
+			this.duration = duration;
+		}
+
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * @return <code>download</code>, <code>compressed</code>, <code>patch</code>, <code>chunks</code>,
+		 * <code>link</code>, <code>copy</code>, <code>store</code> or <code>staged</code>
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/**
+		 * @return the base uri the file was downloaded from, or null if it was not downloaded
+		 */
+		public String getMirror() {
+			return mirror;
+		}
+
+		/**
+		 * @return true if the file was received from the network, false if it was restored or
+		 * copied from a <code>file:</code> mirror
+		 */
+		public boolean isDownloaded() {
+			return mirror != null && !mirror.startsWith("file:");
+		}
+
+		/**
+		 * @return the number of bytes received from the network, or copied from a <code>file:</code>
+		 * mirror
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getDurationNanos() {
+			return duration;
+		}
+
+		/**
+		 * @return the bytes received per second
+		 */
+		public double getThroughput() {
+			return duration > 0 ? bytes / (duration / 1e9) : 0;
+		}
+	}
+
+	synchronized void startPhase(String name) {
+		long now = System.nanoTime() - start;
+		endPhase(now);
+		phases.add(new Phase(name, now));
+	}
+
+	private void endPhase(long now) {
+		if (!phases.isEmpty()) {
+			Phase last = phases.get(phases.size() - 1);
+			if (last.duration < 0)
+				last.duration = now - last.start;
+		}
+	}
+
+	/**
+	 * End the current phase and the launch.
+	 */
+	synchronized void finish() {
+		long now = System.nanoTime() - start;
+		endPhase(now);
+		if (duration < 0)
+			duration = now;
+	}
+
+	void setVersion(Long version) {
+		this.version = version;
+	}
+
+	void trusted(long files) {
+		filesTrusted.addAndGet(files);
+	}
+
+	void verified(long files, long bytes, long nanos) {
+		filesVerified.addAndGet(files);
+		bytesVerified.addAndGet(bytes);
+		verifyNanos.addAndGet(nanos);
+	}
+
+	void transferred(String file, String source, String mirror, long bytes, long nanos) {
+		Transfer transfer = new Transfer(file, source, mirror, bytes, nanos);
+		transfers.add(transfer);
+		if (transfer.isDownloaded()) {
+			filesDownloaded.incrementAndGet();
+			bytesDownloaded.addAndGet(bytes);
+		}
+	}
+
+	void rateLimited(long bytesPerSecond, long waits, long nanos) {
+		rateLimit = bytesPerSecond;
+		throttled.addAndGet(waits);
+		throttledNanos.addAndGet(nanos);
+	}
+
+	public synchronized List<Phase> getPhases() {
+		return new ArrayList<>(phases);
+	}
+
+	public List<Transfer> getTransfers() {
+		synchronized (transfers) {
+			return new ArrayList<>(transfers);
+		}
+	}
+
+	/**
+	 * @return the time the launcher started, in milliseconds since the epoch
+	 */
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	/**
+	 * @return the nanoseconds from the start of the launcher until the application was started, or -1
+	 */
+	public long getDurationNanos() {
+		return duration;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the number of cached files that were trusted from the checksum index without reading them
+	 */
+	public long getFilesTrusted() {
+		return filesTrusted.get();
+	}
+
+	public long getFilesVerified() {
+		return filesVerified.get();
+	}
+
+	public long getBytesVerified() {
+		return bytesVerified.get();
+	}
+
+	public long getVerifyNanos() {
+		return verifyNanos.get();
+	}
+
+	/**
+	 * @return the number of files received from the network, without the ones that were restored or
+	 * copied locally
+	 */
+	public long getFilesDownloaded() {
+		return filesDownloaded.get();
+	}
+
+	public long getBytesDownloaded() {
+		return bytesDownloaded.get();
+	}
+
+	/**
+	 * @return the download rate limit in bytes per second, or 0 if downloads were not limited
+	 */
+	public long getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * @return how many times a transfer had to wait for the download rate limit
+	 */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	public long getThrottledNanos() {
+		return throttledNanos.get();
+	}
+
+	/**
+	 * Write the report to the cache dir, replacing the report of the previous launch.
+	 */
+	void save(Path cacheDir) throws IOException {
+		AtomicFiles.write(cacheDir.resolve(FILENAME), temp -> {
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(toJson());
+			}
+		});
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder(1024);
+		json.append("{\n");
+		json.append("  \"startedAt\": ").append(startedAt).append(",\n");
+		json.append("  \"version\": ").append(version).append(",\n");
+		json.append("  \"durationMs\": ").append(millis(duration)).append(",\n");
+		json.append("  \"phases\": [");
+		List<Phase> phases = getPhases();
+		for (int i = 0; i < phases.size(); i++) {
+			Phase phase = phases.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"name\": ").append(quote(phase.name))
+					.append(", \"startMs\": ").append(millis(phase.start))
+					.append(", \"durationMs\": ").append(millis(phase.duration)).append("}");
+		}
+		json.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+		json.append("  \"verify\": {\"filesTrusted\": ").append(getFilesTrusted())
+				.append(", \"files\": ").append(getFilesVerified())
+				.append(", \"bytes\": ").append(getBytesVerified())
+				.append(", \"durationMs\": ").append(millis(getVerifyNanos())).append("},\n");
+		json.append("  \"download\": {\"files\": ").append(getFilesDownloaded())
+				.append(", \"bytes\": ").append(getBytesDownloaded())
+				.append(", \"rateLimit\": ").append(getRateLimit())
+				.append(", \"throttled\": ").append(getThrottled())
+				.append(", \"throttledMs\": ").append(millis(getThrottledNanos())).append(", \"transfers\": [");
+		List<Transfer> transfers = getTransfers();
+		for (int i = 0; i < transfers.size(); i++) {
+			Transfer transfer = transfers.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"file\": ").append(quote(transfer.file))
+					.append(", \"source\": ").append(quote(transfer.source))
+					.append(", \"mirror\": ").append(quote(transfer.mirror))
+					.append(", \"bytes\": ").append(transfer.bytes)
+					.append(", \"durationMs\": ").append(millis(transfer.duration))
+					.append(", \"bytesPerSecond\": ").append(Math.round(transfer.getThroughput())).append("}");
+		}
+		json.append(transfers.isEmpty() ? "]}\n" : "\n  ]}\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	private static String millis(long nanos) {
+		return nanos < 0 ? "null" : String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	private static String quote(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			switch (c) {
+				case '"':
+					quoted.append("\\\"");
+					break;
+				case '\\':
+					quoted.append("\\\\");
+					break;
+				case '\n':
+					quoted.append("\\n");
+					break;
+				case '\r':
+					quoted.append("\\r");
+					break;
+				case '\t':
+					quoted.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+						quoted.append(String.format("\\u%04x", (int) c));
+					else
+						quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -5,9 +5,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ServiceLoader;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,11 +33,18 @@ import javafx.stage.StageStyle;
 public class Launcher extends Application {
 	private static final Logger log = Logger.getLogger("Launcher");
 
+	private static final HttpValidators updateCheckValidators = new HttpValidators();
+	private static FXManifest lastUpdateCheck;
+	private static volatile Consumer<FXManifest> onUpdateStaged;
+	private static volatile FXManifest stagedUpdate;
+	private static volatile LaunchReport launchReport;
+
 	private Application app;
 	private Stage primaryStage;
 	private Stage stage;
 	private UIProvider uiProvider;
 	private StackPane root;
+	private final AtomicReference<DownloadProgress> pendingProgress = new AtomicReference<>();
 
 	private final AbstractLauncher<Application> superLauncher = new AbstractLauncher<Application>() {
 		@Override
@@ -46,6 +57,13 @@ public class Launcher extends Application {
 			Platform.runLater(() -> uiProvider.updateProgress(progress));
 		}
 
+		@Override
+		protected void updateProgress(DownloadProgress progress) {
+			// Only the latest progress is shown, there is never more than one update queued on the FX thread
+			if (pendingProgress.getAndSet(progress) == null)
+				Platform.runLater(() -> uiProvider.updateProgress(pendingProgress.getAndSet(null)));
+		}
+
 		@Override
 		protected void createApplication(Class<Application> appClass) {
 			runAndWait(() -> {
@@ -85,6 +103,14 @@ public class Launcher extends Application {
 			});
 		}
 
+		@Override
+		protected void updateStaged(FXManifest manifest) {
+			stagedUpdate = manifest;
+			Consumer<FXManifest> listener = onUpdateStaged;
+			if (listener != null)
+				Platform.runLater(() -> listener.accept(manifest));
+		}
+
 		@Override
 		protected void setupClassLoader(ClassLoader classLoader) {
 			FXMLLoader.setDefaultClassLoader(classLoader);
@@ -106,8 +132,49 @@ public class Launcher extends Application {
 		// We might be called even when FXLauncher wasn't used to start the application
 		if (AbstractLauncher.manifest == null)
 			return null;
-		FXManifest manifest = FXManifest.load(URI.create(AbstractLauncher.manifest.uri + "/app.xml"));
-		return manifest.equals(AbstractLauncher.manifest) ? null : manifest;
+		URI uri = URI.create(AbstractLauncher.manifest.uri + "/app.xml");
+		synchronized (Launcher.class) {
+			// A 304 means the answer is the same as for the previous check
+			FXManifest manifest = FXManifest.load(uri, updateCheckValidators);
+			if (manifest != null)
+				lastUpdateCheck = manifest;
+			return lastUpdateCheck.equals(AbstractLauncher.manifest) ? null : lastUpdateCheck;
+		}
+	}
+
+	/**
+	 * The timings and transfer statistics of the current launch. The report is complete once the
+	 * <code>start</code> method of the application has returned.
+	 *
+	 * @return the report, or null if the application was not launched with FXLauncher
+	 */
+	public static LaunchReport getLaunchReport() {
+		return launchReport;
+	}
+
+	/**
+	 * Register a callback that is invoked on the JavaFX application thread when a new version
+	 * has been downloaded by a background update. The new version is activated on the next
+	 * start, so the application can offer the user to restart. If an update was already
+	 * staged when the callback is registered, it is invoked right away.
+	 * <p>
+	 * Background updates are enabled with <code>backgroundUpdate</code> in the manifest.
+	 *
+	 * @param listener the callback, or null to remove it
+	 */
+	public static void setOnUpdateStaged(Consumer<FXManifest> listener) {
+		onUpdateStaged = listener;
+		FXManifest staged = stagedUpdate;
+		if (listener != null && staged != null)
+			Platform.runLater(() -> listener.accept(staged));
+	}
+
+	/**
+	 * @return the manifest of the version that a background update has downloaded and that will
+	 * be activated on the next start, or null
+	 */
+	public static FXManifest getStagedUpdate() {
+		return stagedUpdate;
 	}
 
 	/**
@@ -128,6 +195,7 @@ public class Launcher extends Application {
 
 	public void start(Stage primaryStage) throws Exception {
 		this.primaryStage = primaryStage;
+		launchReport = superLauncher.getLaunchReport();
 		stage = new Stage(StageStyle.UNDECORATED);
 		root = new StackPane();
 		final boolean[] filesUpdated = new boolean[1];
@@ -161,6 +229,8 @@ public class Launcher extends Application {
 			try {
 				superLauncher.createApplicationEnvironment();
 				launchAppFromManifest(filesUpdated[0]);
+				superLauncher.finishLaunchReport();
+				superLauncher.startBackgroundUpdate();
 			} catch (Exception ex) {
 				superLauncher.reportError(
 						String.format(Constants.getString("Error.Start.Phase"), superLauncher.getPhase()), ex);
@@ -213,6 +283,7 @@ public class Launcher extends Application {
 	}
 
 	public static void main(String[] args) {
+		Transport.configureKeepAlive(args);
 		launch(args);
 	}
 
@@ -255,9 +326,21 @@ public class Launcher extends Application {
 			String firstFile = superLauncher.getManifest().files.get(0).file;
 			log.info(() -> String.format(Constants.getString("Application.log.Noappclass"), firstFile));
 			Path cacheDir = superLauncher.getManifest().resolveCacheDir(getParameters().getNamed());
-			String command = String.format("java -jar %s/%s", cacheDir.toAbsolutePath(), firstFile);
-			log.info(() -> String.format(Constants.getString("Application.log.Execute"), command));
-			Runtime.getRuntime().exec(command);
+			LauncherParams params = new LauncherParams(getParameters(), superLauncher.getManifest());
+			if (params.getUnnamed().contains("--app-cds") && ClassDataSharing.isSupported()) {
+				List<String> command = new ArrayList<>();
+				command.add(ClassDataSharing.getJavaCommand());
+				command.addAll(ClassDataSharing.getInheritedJvmOptions());
+				command.addAll(new ClassDataSharing(cacheDir, superLauncher.getManifest()).getJvmOptions());
+				command.add("-jar");
+				command.add(cacheDir.resolve(firstFile).toAbsolutePath().toString());
+				log.info(() -> String.format(Constants.getString("Application.log.Execute"), String.join(" ", command)));
+				new ProcessBuilder(command).inheritIO().start();
+			} else {
+				String command = String.format("java -jar %s/%s", cacheDir.toAbsolutePath(), firstFile);
+				log.info(() -> String.format(Constants.getString("Application.log.Execute"), command));
+				Runtime.getRuntime().exec(command);
+			}
 		}
 	}
 
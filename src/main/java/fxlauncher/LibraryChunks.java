@@ -0,0 +1,87 @@
+package fxlauncher;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlValue;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Checksum;
+
+/**
+ * The checksums of the fixed size chunks of a {@link LibraryFile}, in the checksum algorithm
+ * of the file. The launcher compares them with the chunks of the cached version and fetches
+ * only the chunks that changed with range requests.
+ * <p>
+ * The checksums are stored as hex values separated by spaces, the last chunk may be shorter
+ * than <code>size</code>.
+ */
+public class LibraryChunks {
+    static final long DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+
+    @XmlAttribute
+    Long size;
+    @XmlValue
+    String checksums;
+
+    private transient long[] parsed;
+
+    public LibraryChunks() {
+    }
+
+    public LibraryChunks(Long size, String checksums) {
+        this.size = size;
+        this.checksums = checksums;
+    }
+
+    static LibraryChunks create(Path file, long chunkSize, ChecksumAlgorithm algorithm) throws IOException {
+        long[] values = checksums(file, chunkSize, algorithm);
+        StringBuilder text = new StringBuilder(values.length * 17);
+        for (long value : values) {
+            if (text.length() > 0) text.append(' ');
+            text.append(Long.toHexString(value));
+        }
+        return new LibraryChunks(chunkSize, text.toString());
+    }
+
+    long[] getChecksums() {
+        if (parsed == null) {
+            String text = checksums != null ? checksums.trim() : "";
+            String[] values = text.isEmpty() ? new String[0] : text.split("\\s+");
+            long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++)
+                result[i] = Long.parseUnsignedLong(values[i], 16);
+            parsed = result;
+        }
+        return parsed;
+    }
+
+    /**
+     * @return true if the chunks cover a file of the given size
+     */
+    boolean covers(long fileSize) {
+        return size != null && size > 0 && getChecksums().length == (fileSize + size - 1) / size;
+    }
+
+    /**
+     * Compute the checksum of every chunk of a file.
+     */
+    static long[] checksums(Path file, long chunkSize, ChecksumAlgorithm algorithm) throws IOException {
+        long fileSize = Files.size(file);
+        long[] values = new long[(int) ((fileSize + chunkSize - 1) / chunkSize)];
+        try (InputStream input = Files.newInputStream(file)) {
+            byte[] buf = new byte[65536];
+            for (int i = 0; i < values.length; i++) {
+                Checksum checksum = algorithm.create();
+                long remaining = Math.min(chunkSize, fileSize - i * chunkSize);
+                int read;
+                while (remaining > 0 && (read = input.read(buf, 0, (int) Math.min(buf.length, remaining))) > -1) {
+                    checksum.update(buf, 0, read);
+                    remaining -= read;
+                }
+                values[i] = checksum.getValue();
+            }
+        }
+        return values;
+    }
+}
@@ -1,17 +1,24 @@
 package fxlauncher;
 
 import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.Adler32;
+import java.util.zip.Checksum;
 
 public class LibraryFile {
+    static final long MMAP_THRESHOLD = 8 * 1024 * 1024;
+
     @XmlAttribute
     String file;
     @XmlAttribute
@@ -20,11 +27,23 @@ public class LibraryFile {
     Long size;
 	@XmlAttribute
 	OS os;
+    @XmlAttribute
+    String compression;
+    @XmlAttribute
+    Long compressedSize;
+    @XmlAttribute
+    String algorithm;
+    @XmlAttribute
+    String digest;
+    @XmlElement(name = "patch")
+    List<LibraryPatch> patches;
+    @XmlElement
+    LibraryChunks chunks;
 
     public boolean needsUpdate(Path cacheDir) {
         Path path = cacheDir.resolve(file);
         try {
-            return !Files.exists(path) || Files.size(path) != size || checksum(path) != checksum;
+            return !Files.exists(path) || !matches(path);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -34,9 +53,17 @@ public class LibraryFile {
     }
 
 	public LibraryFile(Path basepath, Path file) throws IOException {
+        this(basepath, file, ChecksumAlgorithm.DEFAULT);
+    }
+
+    LibraryFile(Path basepath, Path file, ChecksumAlgorithm algorithm) throws IOException {
         this.file = basepath.relativize(file).toString().replace("\\", "/");
         this.size = Files.size(file);
-        this.checksum = checksum(file);
+        Checksum checksum = checksum(file, algorithm);
+        this.checksum = checksum.getValue();
+        // Adler32 files are not marked, so older launchers can verify them
+        this.algorithm = algorithm != ChecksumAlgorithm.DEFAULT ? algorithm.id : null;
+        this.digest = ChecksumAlgorithm.digest(checksum);
 
 	    String filename = file.getFileName().toString().toLowerCase();
         Pattern osPattern = Pattern.compile(".+-(linux|win|mac)\\.[^.]+$");
@@ -54,6 +81,35 @@ public class LibraryFile {
         }
     }
 
+    boolean isCompressed() {
+        return "gzip".equals(compression) && compressedSize != null;
+    }
+
+    /**
+     * @return the name of the compressed variant published next to the file
+     */
+    String getCompressedFile() {
+        return file + ".gz";
+    }
+
+    /**
+     * @return the number of bytes transferred when downloading the file
+     */
+    long getTransferSize() {
+        return isCompressed() ? compressedSize : size;
+    }
+
+    /**
+     * @return the patch that can be applied to the version of this file with the given checksum, or null
+     */
+    LibraryPatch findPatch(long baseChecksum) {
+        if (patches != null)
+            for (LibraryPatch patch : patches)
+                if (patch.from != null && patch.from == baseChecksum)
+                    return patch;
+        return null;
+    }
+
 	public boolean loadForCurrentPlatform() {
 		return os == null || os == OS.current;
 	}
@@ -66,16 +122,52 @@ public class LibraryFile {
         }
     }
 
-    private static long checksum(Path path) throws IOException {
+    ChecksumAlgorithm getChecksumAlgorithm() {
+        return ChecksumAlgorithm.forName(algorithm);
+    }
+
+    /**
+     * @return true if the computed checksum, and the digest for algorithms that have one, match this file
+     */
+    boolean matches(Checksum computed) {
+        return computed.getValue() == checksum && (digest == null || digest.equalsIgnoreCase(ChecksumAlgorithm.digest(computed)));
+    }
+
+    /**
+     * @return true if the file has the size and the checksum of this file
+     */
+    boolean matches(Path path) throws IOException {
+        return Files.size(path) == size && matches(checksum(path, getChecksumAlgorithm()));
+    }
+
+    static Checksum checksum(Path path, ChecksumAlgorithm algorithm) throws IOException {
         try (InputStream input = Files.newInputStream(path)) {
-            Adler32 checksum = new Adler32();
+            Checksum checksum = algorithm.create();
             byte[] buf = new byte[16384];
 
             int read;
             while ((read = input.read(buf)) > -1)
                 checksum.update(buf, 0, read);
 
-            return checksum.getValue();
+            return checksum;
+        }
+    }
+
+    /**
+     * Compute the checksum from a memory mapped view of the file, avoiding the copy into a heap buffer.
+     * The file is mapped in regions of at most 1 GB.
+     */
+    static Checksum mappedChecksum(Path path, ChecksumAlgorithm algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Checksum checksum = algorithm.create();
+            long size = channel.size();
+            long region = 1024L * 1024L * 1024L;
+
+            for (long position = 0; position < size; position += region) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(region, size - position));
+                ChecksumAlgorithm.update(checksum, buffer);
+            }
+            return checksum;
         }
     }
 
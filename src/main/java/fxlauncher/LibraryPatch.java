@@ -0,0 +1,26 @@
+package fxlauncher;
+
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * A binary patch published next to a {@link LibraryFile}. The patch transforms the
+ * version of the file with the checksum given in <code>from</code> into the version
+ * described by the enclosing library file.
+ */
+public class LibraryPatch {
+    @XmlAttribute
+    String file;
+    @XmlAttribute
+    Long from;
+    @XmlAttribute
+    Long size;
+
+    public LibraryPatch() {
+    }
+
+    public LibraryPatch(String file, Long from, Long size) {
+        this.file = file;
+        this.from = from;
+        this.size = size;
+    }
+}
@@ -0,0 +1,287 @@
+package fxlauncher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary copy of the manifest in the cache dir together with the classpath resolved from it,
+ * so a warm start reads one small file instead of parsing the XML manifest.
+ * <p>
+ * The snapshot records the size, modification time and file key of the XML manifest it was
+ * created from. It is ignored as soon as the XML manifest changes, and the XML manifest
+ * always remains the authoritative copy.
+ */
+class ManifestSnapshot {
+	private static final Logger log = Logger.getLogger("ManifestSnapshot");
+
+	private static final int MAGIC = 0x46584d53; // FXMS
+	private static final int VERSION = 6;
+
+	final FXManifest manifest;
+	final List<String> classpath;
+
+	private ManifestSnapshot(FXManifest manifest, List<String> classpath) {
+		this.manifest = manifest;
+		this.classpath = classpath;
+	}
+
+	static Path getPath(Path manifestPath) {
+		return manifestPath.resolveSibling(manifestPath.getFileName() + ".snapshot");
+	}
+
+	/**
+	 * @return the snapshot of the XML manifest, or null if there is none or it is out of date
+	 */
+	static ManifestSnapshot load(Path manifestPath) {
+		Path path = getPath(manifestPath);
+		if (!Files.exists(path) || !Files.exists(manifestPath))
+			return null;
+
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION)
+				return null;
+
+			BasicFileAttributes attrs = Files.readAttributes(manifestPath, BasicFileAttributes.class);
+			if (input.readLong() != attrs.size() || input.readLong() != attrs.lastModifiedTime().toMillis()
+					|| !input.readUTF().equals(fileKey(attrs)) || !input.readUTF().equals(OS.current.name()))
+				return null;
+
+			FXManifest manifest = readManifest(input);
+			int count = input.readInt();
+			List<String> classpath = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				classpath.add(input.readUTF());
+			return new ManifestSnapshot(manifest, classpath);
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.FINE, String.format("Ignoring unreadable manifest snapshot %s", path), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the snapshot for the XML manifest that was just written to <code>manifestPath</code>.
+	 * Failures are logged, the launcher falls back to the XML manifest.
+	 */
+	static void save(FXManifest manifest, Path manifestPath) {
+		Path path = getPath(manifestPath);
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(manifestPath, BasicFileAttributes.class);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+			try (DataOutputStream output = new DataOutputStream(bytes)) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(attrs.size());
+				output.writeLong(attrs.lastModifiedTime().toMillis());
+				output.writeUTF(fileKey(attrs));
+				output.writeUTF(OS.current.name());
+				writeManifest(output, manifest);
+
+				List<LibraryFile> libs = new ArrayList<>();
+				for (LibraryFile lib : manifest.files)
+					if (lib.loadForCurrentPlatform())
+						libs.add(lib);
+				output.writeInt(libs.size());
+				for (LibraryFile lib : libs)
+					output.writeUTF(lib.file);
+			}
+
+			AtomicFiles.write(path, bytes.toByteArray());
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to save manifest snapshot %s", path), e);
+		}
+	}
+
+	/**
+	 * @return the classpath of the current platform, resolved against the cache dir
+	 */
+	List<URL> getClasspath(Path cacheDir) {
+		List<URL> urls = new ArrayList<>(classpath.size());
+		for (String file : classpath) {
+			LibraryFile lib = new LibraryFile();
+			lib.file = file;
+			urls.add(lib.toURL(cacheDir));
+		}
+		return urls;
+	}
+
+	private static String fileKey(BasicFileAttributes attrs) {
+		return attrs.fileKey() != null ? attrs.fileKey().toString() : "";
+	}
+
+	/**
+	 * Writes every bound field of the manifest, new fields are added here, to {@link #readManifest}
+	 * and to {@link ManifestXml}. ManifestSnapshotTest fails for a field that is left out.
+	 */
+	private static void writeManifest(DataOutputStream output, FXManifest manifest) throws IOException {
+		writeLong(output, manifest.ts);
+		writeString(output, manifest.uri != null ? manifest.uri.toString() : null);
+		writeString(output, manifest.launchClass);
+		writeString(output, manifest.updateText);
+		writeString(output, manifest.updateLabelStyle);
+		writeString(output, manifest.progressBarStyle);
+		writeString(output, manifest.wrapperStyle);
+		writeString(output, manifest.parameters);
+		writeString(output, manifest.cacheDir);
+		writeBoolean(output, manifest.acceptDowngrade);
+		writeBoolean(output, manifest.stopOnUpdateErrors);
+		writeString(output, manifest.preloadNativeLibraries);
+		writeString(output, manifest.whatsNewPage);
+		writeBoolean(output, manifest.lingeringUpdateScreen);
+		writeInteger(output, manifest.downloadThreads);
+		writeInteger(output, manifest.verifyThreads);
+		writeString(output, manifest.contentStore);
+		writeBoolean(output, manifest.backgroundUpdate);
+		writeString(output, manifest.maxDownloadRate);
+		writeString(output, manifest.maxBackgroundRate);
+		output.writeInt(manifest.mirrors != null ? manifest.mirrors.size() : -1);
+		if (manifest.mirrors != null)
+			for (URI mirror : manifest.mirrors)
+				writeString(output, mirror.toString());
+		writeString(output, manifest.checksumAlgorithm);
+
+		output.writeInt(manifest.files.size());
+		for (LibraryFile lib : manifest.files) {
+			writeString(output, lib.file);
+			writeLong(output, lib.checksum);
+			writeLong(output, lib.size);
+			writeString(output, lib.os != null ? lib.os.name() : null);
+			writeString(output, lib.compression);
+			writeLong(output, lib.compressedSize);
+			writeString(output, lib.algorithm);
+			writeString(output, lib.digest);
+
+			output.writeInt(lib.patches != null ? lib.patches.size() : -1);
+			if (lib.patches != null) {
+				for (LibraryPatch patch : lib.patches) {
+					writeString(output, patch.file);
+					writeLong(output, patch.from);
+					writeLong(output, patch.size);
+				}
+			}
+			writeLong(output, lib.chunks != null ? lib.chunks.size : null);
+			if (lib.chunks != null)
+				writeString(output, lib.chunks.checksums);
+		}
+	}
+
+	private static FXManifest readManifest(DataInputStream input) throws IOException {
+		FXManifest manifest = new FXManifest();
+		manifest.ts = readLong(input);
+		String uri = readString(input);
+		manifest.uri = uri != null ? URI.create(uri) : null;
+		manifest.launchClass = readString(input);
+		manifest.updateText = readString(input);
+		manifest.updateLabelStyle = readString(input);
+		manifest.progressBarStyle = readString(input);
+		manifest.wrapperStyle = readString(input);
+		manifest.parameters = readString(input);
+		manifest.cacheDir = readString(input);
+		manifest.acceptDowngrade = readBoolean(input);
+		manifest.stopOnUpdateErrors = readBoolean(input);
+		manifest.preloadNativeLibraries = readString(input);
+		manifest.whatsNewPage = readString(input);
+		manifest.lingeringUpdateScreen = readBoolean(input);
+		manifest.downloadThreads = readInteger(input);
+		manifest.verifyThreads = readInteger(input);
+		manifest.contentStore = readString(input);
+		manifest.backgroundUpdate = readBoolean(input);
+		manifest.maxDownloadRate = readString(input);
+		manifest.maxBackgroundRate = readString(input);
+		int mirrors = input.readInt();
+		if (mirrors >= 0) {
+			manifest.mirrors = new ArrayList<>(mirrors);
+			for (int i = 0; i < mirrors; i++)
+				manifest.mirrors.add(URI.create(readString(input)));
+		}
+		manifest.checksumAlgorithm = readString(input);
+
+		int files = input.readInt();
+		for (int i = 0; i < files; i++) {
+			LibraryFile lib = new LibraryFile();
+			lib.file = readString(input);
+			lib.checksum = readLong(input);
+			lib.size = readLong(input);
+			String os = readString(input);
+			lib.os = os != null ? OS.valueOf(os) : null;
+			lib.compression = readString(input);
+			lib.compressedSize = readLong(input);
+			lib.algorithm = readString(input);
+			lib.digest = readString(input);
+
+			int patches = input.readInt();
+			if (patches >= 0) {
+				lib.patches = new ArrayList<>(patches);
+				for (int j = 0; j < patches; j++)
+					lib.patches.add(new LibraryPatch(readString(input), readLong(input), readLong(input)));
+			}
+			Long chunkSize = readLong(input);
+			if (chunkSize != null)
+				lib.chunks = new LibraryChunks(chunkSize, readString(input));
+			manifest.files.add(lib);
+		}
+		return manifest;
+	}
+
+	// Strings are written as length prefixed UTF-8, writeUTF is limited to 64 KB
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeLong(DataOutputStream output, Long value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeLong(value);
+	}
+
+	private static Long readLong(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readLong() : null;
+	}
+
+	private static void writeInteger(DataOutputStream output, Integer value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeInt(value);
+	}
+
+	private static Integer readInteger(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readInt() : null;
+	}
+
+	private static void writeBoolean(DataOutputStream output, Boolean value) throws IOException {
+		output.writeByte(value == null ? -1 : value ? 1 : 0);
+	}
+
+	private static Boolean readBoolean(DataInputStream input) throws IOException {
+		byte value = input.readByte();
+		return value < 0 ? null : value == 1;
+	}
+}
@@ -0,0 +1,326 @@
+package fxlauncher;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader and writer for the manifest. It reads and writes the same document as
+ * the JAXB binding of {@link FXManifest} and {@link LibraryFile}, without the cost of
+ * creating a JAXBContext, which dominates the startup time of small applications.
+ * <p>
+ * Like JAXB, unknown elements and attributes are ignored, and fields keep their default
+ * value when their element is missing.
+ */
+class ManifestXml {
+	private static final XMLInputFactory inputFactory = createInputFactory();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	static FXManifest read(Path path) throws IOException {
+		try (InputStream input = Files.newInputStream(path)) {
+			return read(input);
+		}
+	}
+
+	static FXManifest read(URL url) throws IOException {
+		try (InputStream input = url.openStream()) {
+			return read(input);
+		}
+	}
+
+	static FXManifest read(InputStream input) throws IOException {
+		try {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(new BufferedInputStream(input));
+			try {
+				reader.nextTag();
+				if (!"Application".equals(reader.getLocalName()))
+					throw new IOException(String.format("Expected Application element, found %s", reader.getLocalName()));
+				return readManifest(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			throw new IOException("Unable to read manifest", e);
+		}
+	}
+
+	private static FXManifest readManifest(XMLStreamReader reader) throws XMLStreamException {
+		FXManifest manifest = new FXManifest();
+		manifest.ts = toLong(reader.getAttributeValue(null, "ts"));
+		String uri = reader.getAttributeValue(null, "uri");
+		manifest.uri = uri != null ? URI.create(uri.trim()) : null;
+		manifest.launchClass = reader.getAttributeValue(null, "launch");
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+				case "lib":
+					manifest.files.add(readLibraryFile(reader));
+					break;
+				case "updateText":
+					manifest.updateText = reader.getElementText();
+					break;
+				case "updateLabelStyle":
+					manifest.updateLabelStyle = reader.getElementText();
+					break;
+				case "progressBarStyle":
+					manifest.progressBarStyle = reader.getElementText();
+					break;
+				case "wrapperStyle":
+					manifest.wrapperStyle = reader.getElementText();
+					break;
+				case "parameters":
+					manifest.parameters = reader.getElementText();
+					break;
+				case "cacheDir":
+					manifest.cacheDir = reader.getElementText();
+					break;
+				case "acceptDowngrade":
+					manifest.acceptDowngrade = toBoolean(reader.getElementText());
+					break;
+				case "stopOnUpdateErrors":
+					manifest.stopOnUpdateErrors = toBoolean(reader.getElementText());
+					break;
+				case "preloadNativeLibraries":
+					manifest.preloadNativeLibraries = reader.getElementText();
+					break;
+				case "whatsNewPage":
+					manifest.whatsNewPage = reader.getElementText();
+					break;
+				case "lingeringUpdateScreen":
+					manifest.lingeringUpdateScreen = toBoolean(reader.getElementText());
+					break;
+				case "downloadThreads":
+					manifest.downloadThreads = toInteger(reader.getElementText());
+					break;
+				case "verifyThreads":
+					manifest.verifyThreads = toInteger(reader.getElementText());
+					break;
+				case "contentStore":
+					manifest.contentStore = reader.getElementText();
+					break;
+				case "backgroundUpdate":
+					manifest.backgroundUpdate = toBoolean(reader.getElementText());
+					break;
+				case "maxDownloadRate":
+					manifest.maxDownloadRate = reader.getElementText();
+					break;
+				case "maxBackgroundRate":
+					manifest.maxBackgroundRate = reader.getElementText();
+					break;
+				case "checksumAlgorithm":
+					manifest.checksumAlgorithm = reader.getElementText().trim();
+					break;
+				case "mirror":
+					if (manifest.mirrors == null)
+						manifest.mirrors = new ArrayList<>();
+					manifest.mirrors.add(URI.create(reader.getElementText().trim()));
+					break;
+				default:
+					skipElement(reader);
+			}
+		}
+		manifest.inheritChecksumAlgorithm();
+		return manifest;
+	}
+
+	private static LibraryFile readLibraryFile(XMLStreamReader reader) throws XMLStreamException {
+		LibraryFile lib = new LibraryFile();
+		lib.file = reader.getAttributeValue(null, "file");
+		lib.checksum = toLong(reader.getAttributeValue(null, "checksum"));
+		lib.size = toLong(reader.getAttributeValue(null, "size"));
+		String os = reader.getAttributeValue(null, "os");
+		lib.os = os != null ? toOS(os.trim()) : null;
+		lib.compression = reader.getAttributeValue(null, "compression");
+		lib.compressedSize = toLong(reader.getAttributeValue(null, "compressedSize"));
+		lib.algorithm = reader.getAttributeValue(null, "algorithm");
+		lib.digest = reader.getAttributeValue(null, "digest");
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("chunks".equals(reader.getLocalName())) {
+				// Reading the text moves to the end of the element
+				lib.chunks = new LibraryChunks(toLong(reader.getAttributeValue(null, "size")), reader.getElementText());
+				continue;
+			}
+			if ("patch".equals(reader.getLocalName())) {
+				if (lib.patches == null)
+					lib.patches = new ArrayList<>();
+				lib.patches.add(new LibraryPatch(reader.getAttributeValue(null, "file"),
+						toLong(reader.getAttributeValue(null, "from")), toLong(reader.getAttributeValue(null, "size"))));
+			}
+			skipElement(reader);
+		}
+		return lib;
+	}
+
+	/**
+	 * Skip to the end of the current element, including any nested elements.
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * Empty text, as in <code>&lt;downloadThreads/&gt;</code> from a hand edited manifest, leaves the
+	 * number unset instead of failing the whole manifest.
+	 */
+	private static Long toLong(String value) {
+		String trimmed = value != null ? value.trim() : "";
+		return trimmed.isEmpty() ? null : Long.valueOf(trimmed);
+	}
+
+	private static Integer toInteger(String value) {
+		String trimmed = value != null ? value.trim() : "";
+		return trimmed.isEmpty() ? null : Integer.valueOf(trimmed);
+	}
+
+	private static Boolean toBoolean(String value) {
+		String trimmed = value.trim();
+		return "true".equals(trimmed) || "1".equals(trimmed);
+	}
+
+	/**
+	 * JAXB maps unknown enum constants to null instead of failing.
+	 */
+	private static OS toOS(String value) {
+		for (OS os : OS.values())
+			if (os.name().equals(value))
+				return os;
+		return null;
+	}
+
+	static void write(FXManifest manifest, Path path) throws IOException {
+		try (OutputStream output = Files.newOutputStream(path)) {
+			write(manifest, output);
+		}
+	}
+
+	static void write(FXManifest manifest, OutputStream output) throws IOException {
+		try {
+			BufferedOutputStream buffered = new BufferedOutputStream(output);
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(buffered, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeCharacters("\n");
+			writer.writeStartElement("Application");
+			writeAttribute(writer, "ts", manifest.ts);
+			writeAttribute(writer, "uri", manifest.uri);
+			writeAttribute(writer, "launch", manifest.launchClass);
+
+			for (LibraryFile lib : manifest.files)
+				writeLibraryFile(writer, lib, manifest.checksumAlgorithm);
+
+			writeElement(writer, "updateText", manifest.updateText);
+			writeElement(writer, "updateLabelStyle", manifest.updateLabelStyle);
+			writeElement(writer, "progressBarStyle", manifest.progressBarStyle);
+			writeElement(writer, "wrapperStyle", manifest.wrapperStyle);
+			writeElement(writer, "parameters", manifest.parameters);
+			writeElement(writer, "cacheDir", manifest.cacheDir);
+			writeElement(writer, "acceptDowngrade", manifest.acceptDowngrade);
+			writeElement(writer, "stopOnUpdateErrors", manifest.stopOnUpdateErrors);
+			writeElement(writer, "preloadNativeLibraries", manifest.preloadNativeLibraries);
+			writeElement(writer, "whatsNewPage", manifest.whatsNewPage);
+			writeElement(writer, "lingeringUpdateScreen", manifest.lingeringUpdateScreen);
+			writeElement(writer, "downloadThreads", manifest.downloadThreads);
+			writeElement(writer, "verifyThreads", manifest.verifyThreads);
+			writeElement(writer, "contentStore", manifest.contentStore);
+			writeElement(writer, "backgroundUpdate", manifest.backgroundUpdate);
+			writeElement(writer, "maxDownloadRate", manifest.maxDownloadRate);
+			writeElement(writer, "maxBackgroundRate", manifest.maxBackgroundRate);
+			if (manifest.mirrors != null)
+				for (URI mirror : manifest.mirrors)
+					writeElement(writer, "mirror", mirror);
+			writeElement(writer, "checksumAlgorithm", manifest.checksumAlgorithm);
+
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+			writer.close();
+			buffered.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to write manifest", e);
+		}
+	}
+
+	private static void writeLibraryFile(XMLStreamWriter writer, LibraryFile lib, String defaultAlgorithm)
+			throws XMLStreamException {
+		writer.writeCharacters("\n    ");
+		boolean hasPatches = lib.patches != null && !lib.patches.isEmpty();
+		if (hasPatches || lib.chunks != null)
+			writer.writeStartElement("lib");
+		else
+			writer.writeEmptyElement("lib");
+		writeAttribute(writer, "file", lib.file);
+		writeAttribute(writer, "checksum", lib.checksum);
+		writeAttribute(writer, "size", lib.size);
+		writeAttribute(writer, "os", lib.os);
+		writeAttribute(writer, "compression", lib.compression);
+		writeAttribute(writer, "compressedSize", lib.compressedSize);
+		// Files using the algorithm of the manifest inherit it when they are read
+		if (lib.algorithm != null && !lib.algorithm.equals(defaultAlgorithm))
+			writeAttribute(writer, "algorithm", lib.algorithm);
+		writeAttribute(writer, "digest", lib.digest);
+
+		if (hasPatches || lib.chunks != null) {
+			if (hasPatches) {
+				for (LibraryPatch patch : lib.patches) {
+					writer.writeCharacters("\n        ");
+					writer.writeEmptyElement("patch");
+					writeAttribute(writer, "file", patch.file);
+					writeAttribute(writer, "from", patch.from);
+					writeAttribute(writer, "size", patch.size);
+				}
+			}
+			if (lib.chunks != null) {
+				writer.writeCharacters("\n        ");
+				writer.writeStartElement("chunks");
+				writeAttribute(writer, "size", lib.chunks.size);
+				writer.writeCharacters(lib.chunks.checksums);
+				writer.writeEndElement();
+			}
+			writer.writeCharacters("\n    ");
+			writer.writeEndElement();
+		}
+	}
+
+	private static void writeAttribute(XMLStreamWriter writer, String name, Object value) throws XMLStreamException {
+		if (value != null)
+			writer.writeAttribute(name, value.toString());
+	}
+
+	private static void writeElement(XMLStreamWriter writer, String name, Object value) throws XMLStreamException {
+		if (value == null)
+			return;
+		writer.writeCharacters("\n    ");
+		writer.writeStartElement(name);
+		writer.writeCharacters(value.toString());
+		writer.writeEndElement();
+	}
+}
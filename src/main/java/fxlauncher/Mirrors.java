@@ -0,0 +1,249 @@
+package fxlauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static fxlauncher.Strings.ensureEndingSlash;
+
+/**
+ * The base uri of the manifest and its mirrors, ordered by how fast they are expected to
+ * deliver a file. The latency of every mirror is probed with a <code>HEAD</code> request for
+ * the manifest, and the throughput is measured from the files downloaded from it. Both are
+ * remembered in the cache dir, so later launches start with the fastest mirror right away.
+ * <p>
+ * A mirror that failed is moved to the end of the order for a while, so transfers fail over
+ * to the other mirrors.
+ */
+class Mirrors {
+	private static final Logger log = Logger.getLogger("Mirrors");
+
+	static final String FILENAME = "fxlauncher-mirrors.properties";
+	private static final long PROBE_INTERVAL = TimeUnit.DAYS.toMillis(1);
+	private static final long FAILURE_PENALTY = TimeUnit.MINUTES.toMillis(10);
+	private static final double SMOOTHING = 0.3;
+
+	private final Path path;
+	private final Map<URI, Stats> mirrors = new LinkedHashMap<>();
+
+	/**
+	 * What is known about one mirror. Guarded by the enclosing instance.
+	 */
+	private static class Stats {
+		double latency = -1;
+		double throughput = -1;
+		int failures;
+		long failedAt;
+		long probedAt;
+		long bytes;
+	}
+
+	Mirrors(FXManifest manifest, Path cacheDir) {
+		this.path = cacheDir != null ? cacheDir.resolve(FILENAME) : null;
+		mirrors.put(base(manifest.uri), new Stats());
+		if (manifest.mirrors != null)
+			for (URI mirror : manifest.mirrors)
+				mirrors.putIfAbsent(base(mirror), new Stats());
+		load();
+	}
+
+	private static URI base(URI uri) {
+		return URI.create(ensureEndingSlash(uri.toString()));
+	}
+
+	/**
+	 * @return true if the manifest lists mirrors besides its own uri
+	 */
+	boolean hasMirrors() {
+		return mirrors.size() > 1;
+	}
+
+	/**
+	 * @return the base uris, the one expected to be fastest first
+	 */
+	synchronized List<URI> getOrder() {
+		long now = System.currentTimeMillis();
+		// Mirrors without a measured throughput are assumed to be as fast as the average
+		double assumed = mirrors.values().stream().filter(stats -> stats.throughput > 0)
+				.mapToDouble(stats -> stats.throughput).average().orElse(-1);
+		List<URI> order = new ArrayList<>(mirrors.keySet());
+		// The sort is stable, mirrors that are not measured yet keep the order of the manifest
+		order.sort(Comparator.comparingDouble(uri -> score(mirrors.get(uri), assumed, now)));
+		return order;
+	}
+
+	/**
+	 * The expected milliseconds to fetch a megabyte. Mirrors that were never reached come after
+	 * the measured ones, and mirrors that failed recently last.
+	 */
+	private static double score(Stats stats, double assumedThroughput, long now) {
+		double score = stats.latency >= 0 ? stats.latency : 1e6;
+		double throughput = stats.throughput > 0 ? stats.throughput : assumedThroughput;
+		if (throughput > 0)
+			score += 1000d * 1024 * 1024 / throughput;
+		if (stats.failures > 0 && now - stats.failedAt < FAILURE_PENALTY)
+			score += 1e9 * stats.failures;
+		return score;
+	}
+
+	/**
+	 * Measure the latency of the mirrors that were not probed recently, in parallel.
+	 */
+	void probe(Transport transport) {
+		if (!hasMirrors())
+			return;
+		long now = System.currentTimeMillis();
+		List<URI> stale = new ArrayList<>();
+		synchronized (this) {
+			for (Map.Entry<URI, Stats> entry : mirrors.entrySet())
+				if (now - entry.getValue().probedAt > PROBE_INTERVAL)
+					stale.add(entry.getKey());
+		}
+		if (stale.isEmpty())
+			return;
+
+		ExecutorService executor = Executors.newFixedThreadPool(stale.size(), new NamedThreadFactory("FXLauncher-Probe"));
+		try {
+			for (URI mirror : stale)
+				executor.submit(() -> probe(transport, mirror));
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void probe(Transport transport, URI mirror) {
+		URI uri = URI.create(mirror + "app.xml");
+		long start = System.nanoTime();
+		try {
+			if ("file".equals(uri.getScheme())) {
+				if (!Files.exists(new File(uri.getPath()).toPath()))
+					throw new IOException(String.format("%s does not exist", uri));
+			} else {
+				URLConnection connection = transport.connect(uri);
+				if (connection instanceof HttpURLConnection)
+					((HttpURLConnection) connection).setRequestMethod("HEAD");
+				transport.getResponseCode(connection);
+				connection.getInputStream().close();
+			}
+			double latency = (System.nanoTime() - start) / 1e6;
+			synchronized (this) {
+				Stats stats = mirrors.get(mirror);
+				stats.latency = stats.latency < 0 ? latency : stats.latency + SMOOTHING * (latency - stats.latency);
+				stats.probedAt = System.currentTimeMillis();
+			}
+			log.info(String.format("Mirror %s answered in %.0f ms", mirror, latency));
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Mirror %s is not reachable", mirror), e);
+			failed(mirror);
+			synchronized (this) {
+				mirrors.get(mirror).probedAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Record a file that was downloaded from a mirror. Small files are dominated by latency and
+	 * do not count towards the throughput.
+	 */
+	synchronized void transferred(URI mirror, long bytes, long nanos) {
+		Stats stats = mirrors.get(mirror);
+		if (stats == null)
+			return;
+		stats.failures = 0;
+		stats.bytes += bytes;
+		if (bytes >= 256 * 1024 && nanos > 0) {
+			double throughput = bytes / (nanos / 1e9);
+			stats.throughput = stats.throughput < 0 ? throughput : stats.throughput + SMOOTHING * (throughput - stats.throughput);
+		}
+	}
+
+	synchronized void failed(URI mirror) {
+		Stats stats = mirrors.get(mirror);
+		if (stats == null)
+			return;
+		stats.failures++;
+		stats.failedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Log the bytes downloaded from every mirror in this session.
+	 */
+	synchronized void logUsage() {
+		for (Map.Entry<URI, Stats> entry : mirrors.entrySet()) {
+			Stats stats = entry.getValue();
+			if (stats.bytes > 0)
+				log.info(String.format("Downloaded %d bytes from mirror %s (%.0f ms latency, %.0f bytes/s)", stats.bytes,
+						entry.getKey(), stats.latency, stats.throughput));
+		}
+	}
+
+	private void load() {
+		if (path == null || !hasMirrors() || !Files.exists(path))
+			return;
+
+		Properties props = new Properties();
+		try (InputStream input = Files.newInputStream(path)) {
+			props.load(input);
+			for (int i = 0; props.containsKey(i + ".uri"); i++) {
+				Stats stats = mirrors.get(URI.create(props.getProperty(i + ".uri")));
+				if (stats == null)
+					continue;
+				stats.latency = Double.parseDouble(props.getProperty(i + ".latency", "-1"));
+				stats.throughput = Double.parseDouble(props.getProperty(i + ".throughput", "-1"));
+				stats.failures = Integer.parseInt(props.getProperty(i + ".failures", "0"));
+				stats.failedAt = Long.parseLong(props.getProperty(i + ".failed-at", "0"));
+				stats.probedAt = Long.parseLong(props.getProperty(i + ".probed-at", "0"));
+			}
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.FINE, String.format("Ignoring unreadable mirror statistics %s", path), e);
+		}
+	}
+
+	synchronized void save() {
+		if (path == null || !hasMirrors())
+			return;
+
+		Properties props = new Properties();
+		int i = 0;
+		for (Map.Entry<URI, Stats> entry : mirrors.entrySet()) {
+			Stats stats = entry.getValue();
+			props.setProperty(i + ".uri", entry.getKey().toString());
+			props.setProperty(i + ".latency", String.valueOf(stats.latency));
+			props.setProperty(i + ".throughput", String.valueOf(stats.throughput));
+			props.setProperty(i + ".failures", String.valueOf(stats.failures));
+			props.setProperty(i + ".failed-at", String.valueOf(stats.failedAt));
+			props.setProperty(i + ".probed-at", String.valueOf(stats.probedAt));
+			i++;
+		}
+		try {
+			AtomicFiles.write(path, temp -> {
+				try (OutputStream output = Files.newOutputStream(temp)) {
+					props.store(output, "fxlauncher mirror statistics");
+				}
+			});
+		} catch (IOException e) {
+			log.log(Level.WARNING, String.format("Unable to save mirror statistics %s", path), e);
+		}
+	}
+}
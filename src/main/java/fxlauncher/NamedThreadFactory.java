@@ -0,0 +1,22 @@
+package fxlauncher;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads so that launcher worker pools never keep the JVM alive.
+ */
+class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+
+	NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
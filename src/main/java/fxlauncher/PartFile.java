@@ -0,0 +1,120 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.zip.Checksum;
+
+/**
+ * An incomplete download of a library file. The bytes are written to a <code>.part</code>
+ * file next to the target, and a <code>.part.info</code> file records which version of the
+ * library is being downloaded together with the server validator for the content. An
+ * interrupted download can be resumed from the length of the part file as long as the
+ * recorded version still matches the manifest.
+ */
+class PartFile {
+	private final LibraryFile lib;
+	private final Path part;
+	private final Path info;
+
+	PartFile(LibraryFile lib, Path target) {
+		this.lib = lib;
+		this.part = target.resolveSibling(target.getFileName() + ".part");
+		this.info = target.resolveSibling(target.getFileName() + ".part.info");
+	}
+
+	/**
+	 * @return the number of bytes that can be resumed, 0 if the download must start over
+	 */
+	long getResumeOffset() throws IOException {
+		if (!Files.exists(part) || !Files.exists(info))
+			return 0;
+
+		Properties props = readInfo();
+		long length = Files.size(part);
+		if (!lib.getChecksumAlgorithm().id.equals(props.getProperty("algorithm", ChecksumAlgorithm.ADLER32.id))
+				|| !String.valueOf(lib.checksum).equals(props.getProperty("checksum"))
+				|| !String.valueOf(lib.size).equals(props.getProperty("size")) || length >= lib.size) {
+			discard();
+			return 0;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the ETag or Last-Modified value the part file was downloaded with, or null
+	 */
+	String getValidator() throws IOException {
+		return Files.exists(info) ? readInfo().getProperty("validator") : null;
+	}
+
+	/**
+	 * Compute the checksum of the bytes already downloaded, so the checksum of the complete
+	 * file can be computed while the rest is downloaded.
+	 */
+	Checksum checksumResumed(long offset) throws IOException {
+		Checksum checksum = lib.getChecksumAlgorithm().create();
+		try (InputStream input = Files.newInputStream(part)) {
+			byte[] buf = new byte[65536];
+			long remaining = offset;
+			int read;
+			while (remaining > 0 && (read = input.read(buf, 0, (int) Math.min(buf.length, remaining))) > -1) {
+				checksum.update(buf, 0, read);
+				remaining -= read;
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Record the version being downloaded and open the part file for writing.
+	 *
+	 * @param offset where the received content starts, the part file is truncated to this length
+	 */
+	OutputStream open(long offset, String validator) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("algorithm", lib.getChecksumAlgorithm().id);
+		props.setProperty("checksum", String.valueOf(lib.checksum));
+		props.setProperty("size", String.valueOf(lib.size));
+		if (validator != null)
+			props.setProperty("validator", validator);
+		try (OutputStream output = Files.newOutputStream(info)) {
+			props.store(output, "fxlauncher partial download");
+		}
+
+		if (offset == 0)
+			return Files.newOutputStream(part);
+
+		try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+			channel.truncate(offset);
+		}
+		return Files.newOutputStream(part, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Move the completed part file over the target.
+	 */
+	void complete(Path target) throws IOException {
+		Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(info);
+	}
+
+	void discard() throws IOException {
+		Files.deleteIfExists(part);
+		Files.deleteIfExists(info);
+	}
+
+	private Properties readInfo() throws IOException {
+		Properties props = new Properties();
+		try (InputStream input = Files.newInputStream(info)) {
+			props.load(input);
+		}
+		return props;
+	}
+}
@@ -0,0 +1,117 @@
+package fxlauncher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates the bytes written by concurrent transfers and publishes a {@link DownloadProgress}
+ * at most once per interval. Counting a chunk of bytes does not allocate, and only the thread
+ * that finds the interval elapsed builds and delivers the next progress, so listeners are
+ * never called more often than the interval no matter how small the reads are.
+ * <p>
+ * The throughput is an exponentially weighted moving average of the transferred bytes, with
+ * a time constant of a few seconds, which gives a stable estimate of the remaining time.
+ */
+class ProgressPublisher {
+	static final long DEFAULT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final double SMOOTHING_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+	private final long bytesTotal;
+	private final int filesTotal;
+	private final long interval;
+	private final Consumer<DownloadProgress> listener;
+
+	private final AtomicLong bytesDone = new AtomicLong();
+	private final AtomicLong bytesTransferred = new AtomicLong();
+	private final AtomicInteger filesDone = new AtomicInteger();
+	private final AtomicLong nextPublish;
+	private volatile String file;
+
+	// Guarded by this, only touched when publishing
+	private long lastTime;
+	private long lastTransferred;
+	private double bytesPerSecond;
+
+	ProgressPublisher(long bytesTotal, int filesTotal, long interval, Consumer<DownloadProgress> listener) {
+		this.bytesTotal = bytesTotal;
+		this.filesTotal = filesTotal;
+		this.interval = interval;
+		this.listener = listener;
+		this.lastTime = System.nanoTime();
+		this.nextPublish = new AtomicLong(lastTime + interval);
+	}
+
+	void startFile(String file) {
+		this.file = file;
+	}
+
+	void fileDone() {
+		filesDone.incrementAndGet();
+		publishIfDue();
+	}
+
+	/**
+	 * Count bytes received from the network.
+	 */
+	void transferred(long bytes) {
+		bytesTransferred.addAndGet(bytes);
+		bytesDone.addAndGet(bytes);
+		publishIfDue();
+	}
+
+	/**
+	 * Count bytes that are done without being transferred, like a file restored from the staging area.
+	 */
+	void skipped(long bytes) {
+		bytesDone.addAndGet(bytes);
+		publishIfDue();
+	}
+
+	/**
+	 * Take back bytes that were counted for a transfer that failed and is retried.
+	 */
+	void discarded(long bytes) {
+		bytesDone.addAndGet(-bytes);
+	}
+
+	/**
+	 * @return the bytes counted as done, which may exceed the total if a transfer was counted twice
+	 */
+	long getBytesDone() {
+		return bytesDone.get();
+	}
+
+	/**
+	 * Publish the final progress, regardless of the interval.
+	 */
+	void finish() {
+		publish(System.nanoTime(), true);
+	}
+
+	private void publishIfDue() {
+		long now = System.nanoTime();
+		long due = nextPublish.get();
+		if (now - due >= 0 && nextPublish.compareAndSet(due, now + interval))
+			publish(now, false);
+	}
+
+	private synchronized void publish(long now, boolean done) {
+		long transferred = bytesTransferred.get();
+		long elapsed = now - lastTime;
+		if (elapsed > 0) {
+			double current = (transferred - lastTransferred) / (elapsed / 1e9);
+			double weight = 1 - Math.exp(-elapsed / SMOOTHING_NANOS);
+			// The first measurement seeds the average
+			if (lastTransferred == 0 && bytesPerSecond == 0)
+				bytesPerSecond = current;
+			else
+				bytesPerSecond += weight * (current - bytesPerSecond);
+			lastTime = now;
+			lastTransferred = transferred;
+		}
+		listener.accept(new DownloadProgress(file, Math.min(bytesDone.get(), bytesTotal), bytesTotal, filesDone.get(),
+				filesTotal, bytesPerSecond, done));
+	}
+}
@@ -0,0 +1,95 @@
+package fxlauncher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the combined rate of all transfers it is shared by. Every transfer
+ * takes tokens for the bytes it has read. When the bucket runs dry the tokens are borrowed,
+ * and the transfer sleeps until the debt is paid back at the configured rate, so concurrent
+ * transfers share the bandwidth instead of competing for it.
+ * <p>
+ * The bucket holds a quarter of a second of tokens, which lets short bursts through
+ * without exceeding the rate on average.
+ */
+class RateLimiter {
+	private final long bytesPerSecond;
+	private final double capacity;
+	private double tokens;
+	private long last = System.nanoTime();
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+
+	RateLimiter(long bytesPerSecond) {
+		if (bytesPerSecond <= 0)
+			throw new IllegalArgumentException(String.format("Invalid rate %d, it must be positive", bytesPerSecond));
+		this.bytesPerSecond = bytesPerSecond;
+		this.capacity = Math.max(65536, bytesPerSecond / 4d);
+		this.tokens = capacity;
+	}
+
+	/**
+	 * Parse a rate in bytes per second, with an optional <code>k</code>, <code>m</code> or
+	 * <code>g</code> suffix for kilobytes, megabytes or gigabytes per second.
+	 *
+	 * @return the rate in bytes per second
+	 */
+	static long parseRate(String rate) {
+		try {
+			return Strings.parseSize(rate);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid rate '%s', expected bytes per second like 500k or 2m", rate), e);
+		}
+	}
+
+	/**
+	 * Take tokens for bytes that were read, sleeping as long as the rate requires.
+	 */
+	void acquire(long count) throws InterruptedException {
+		bytes.addAndGet(count);
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - last) * (bytesPerSecond / 1e9));
+			last = now;
+			tokens -= count;
+			wait = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+		}
+		if (wait > 0) {
+			throttled.incrementAndGet();
+			throttledNanos.addAndGet(wait);
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return the number of bytes that passed the limiter
+	 */
+	long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return how many times a transfer had to wait for the limit
+	 */
+	long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * @return the total time transfers waited for the limit
+	 */
+	long getThrottledNanos() {
+		return throttledNanos.get();
+	}
+
+	public String toString() {
+		return String.format("%d bytes/s", bytesPerSecond);
+	}
+}
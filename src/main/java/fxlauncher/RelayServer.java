@@ -0,0 +1,426 @@
+package fxlauncher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static fxlauncher.Strings.ensureEndingSlash;
+
+/**
+ * Serves the manifest and the files of a cache dir over HTTP to other launchers, so a site
+ * downloads every release from the repository once and the launchers on the LAN fetch it from
+ * the relay. Files are sent from the page cache to the socket with
+ * {@link FileChannel#transferTo}, without copying them through the heap.
+ * <p>
+ * The manifest is served with the uri of the relay as its base uri, which is configured or
+ * derived from the address the relay is bound to, and the repository and its mirrors as
+ * mirrors, so clients fail over to the repository when the relay is down. Compressed variants
+ * and patches are not relayed and are removed from the served manifest. Only the files listed
+ * in the manifest are served, with single byte ranges, <code>If-Range</code> and
+ * <code>If-None-Match</code> support.
+ */
+class RelayServer {
+	private static final Logger log = Logger.getLogger("RelayServer");
+
+	static final int DEFAULT_THREADS = 32;
+	private static final int IDLE_TIMEOUT = 30000;
+	private static final int MAX_HEADER_SIZE = 16384;
+
+	private final Path cacheDir;
+	private final URI uri;
+	private final ServerSocketChannel server;
+	private final ExecutorService executor;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private volatile Release release;
+
+	/**
+	 * The manifest and files that are currently served.
+	 */
+	private static class Release {
+		final byte[] manifest;
+		final String etag;
+		final Map<String, LibraryFile> files = new HashMap<>();
+
+		Release(FXManifest relayed, byte[] manifest) {
+			this.manifest = manifest;
+			this.etag = String.format("\"%d-%08x\"", relayed.ts, Arrays.hashCode(manifest));
+			for (LibraryFile lib : relayed.files)
+				files.put(lib.file, lib);
+		}
+	}
+
+	/**
+	 * @param uri the uri clients reach the relay at, or null to derive it from the address
+	 */
+	RelayServer(Path cacheDir, InetSocketAddress address, URI uri, int threads) throws IOException {
+		this.cacheDir = cacheDir;
+		this.server = ServerSocketChannel.open();
+		server.bind(address);
+		this.uri = uri != null ? URI.create(ensureEndingSlash(uri.toString())) : deriveUri(getAddress());
+		this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("FXLauncher-Relay"));
+	}
+
+	/**
+	 * The uri of the address the relay is bound to, with the name of this host when it listens on
+	 * all interfaces.
+	 */
+	static URI deriveUri(InetSocketAddress address) {
+		String host;
+		if (address.getAddress().isAnyLocalAddress()) {
+			try {
+				host = InetAddress.getLocalHost().getCanonicalHostName();
+			} catch (UnknownHostException e) {
+				host = InetAddress.getLoopbackAddress().getHostAddress();
+			}
+		} else {
+			host = address.getAddress().getHostAddress();
+		}
+		// IPv6 literals are bracketed, without their scope
+		int scope = host.indexOf('%');
+		if (scope > 0)
+			host = host.substring(0, scope);
+		if (host.indexOf(':') >= 0)
+			host = "[" + host + "]";
+		return URI.create(String.format("http://%s:%d/", host, address.getPort()));
+	}
+
+	/**
+	 * Serve a new release. Transfers that are in progress complete with the file they opened.
+	 */
+	void setManifest(FXManifest manifest) throws IOException {
+		// Work on a copy, the launcher keeps using its manifest
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ManifestXml.write(manifest, bytes);
+		FXManifest relayed = ManifestXml.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+		LinkedHashMap<String, URI> mirrors = new LinkedHashMap<>();
+		mirrors.put(ensureEndingSlash(manifest.uri.toString()), manifest.uri);
+		if (manifest.mirrors != null)
+			for (URI mirror : manifest.mirrors)
+				mirrors.putIfAbsent(ensureEndingSlash(mirror.toString()), mirror);
+		relayed.mirrors = new ArrayList<>(mirrors.values());
+
+		for (LibraryFile lib : relayed.files) {
+			lib.compression = null;
+			lib.compressedSize = null;
+			lib.patches = null;
+		}
+		relayed.uri = uri;
+
+		bytes.reset();
+		ManifestXml.write(relayed, bytes);
+		release = new Release(relayed, bytes.toByteArray());
+	}
+
+	URI getUri() {
+		return uri;
+	}
+
+	InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	long getRequests() {
+		return requests.get();
+	}
+
+	long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Accept connections on a daemon thread until the server is closed.
+	 */
+	void start() {
+		Thread acceptor = new Thread(() -> {
+			while (server.isOpen()) {
+				try {
+					SocketChannel channel = server.accept();
+					executor.submit(() -> serve(channel));
+				} catch (ClosedChannelException e) {
+					return;
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to accept relay connection", e);
+				}
+			}
+		}, "FXLauncher-Relay-Accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	void close() throws IOException {
+		server.close();
+		executor.shutdownNow();
+	}
+
+	private void serve(SocketChannel channel) {
+		try (SocketChannel client = channel) {
+			Socket socket = client.socket();
+			socket.setSoTimeout(IDLE_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			// Reads through the socket adaptor honor the timeout, writes go straight to the channel
+			InputStream input = new BufferedInputStream(socket.getInputStream());
+			Map<String, String> headers = new HashMap<>();
+			String requestLine;
+			while ((requestLine = readRequest(input, headers)) != null) {
+				requests.incrementAndGet();
+				if (!respond(client, requestLine, headers))
+					return;
+				headers.clear();
+			}
+		} catch (SocketTimeoutException e) {
+			// Idle keep-alive connection
+		} catch (IOException e) {
+			log.log(Level.FINE, "Relay connection closed", e);
+		}
+	}
+
+	/**
+	 * @return true if the connection can be reused for another request
+	 */
+	private boolean respond(SocketChannel client, String requestLine, Map<String, String> headers) throws IOException {
+		String[] parts = requestLine.split(" ");
+		if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+			sendStatus(client, 400, "Bad Request", false);
+			return false;
+		}
+		String method = parts[0];
+		boolean head = method.equals("HEAD");
+		if (!head && !method.equals("GET")) {
+			sendStatus(client, 405, "Method Not Allowed", false);
+			return false;
+		}
+		boolean keepAlive = parts[2].equals("HTTP/1.1") ? !"close".equalsIgnoreCase(headers.get("connection"))
+				: "keep-alive".equalsIgnoreCase(headers.get("connection"));
+
+		String path;
+		try {
+			path = new URI(parts[1]).getPath();
+		} catch (URISyntaxException e) {
+			sendStatus(client, 400, "Bad Request", false);
+			return false;
+		}
+		path = path != null && path.startsWith("/") ? path.substring(1) : path;
+
+		Release current = release;
+		if (current == null) {
+			sendStatus(client, 503, "Service Unavailable", keepAlive);
+			return keepAlive;
+		}
+		if ("app.xml".equals(path)) {
+			sendManifest(client, current, headers, head, keepAlive);
+			return keepAlive;
+		}
+		LibraryFile lib = current.files.get(path);
+		if (lib == null) {
+			sendStatus(client, 404, "Not Found", keepAlive);
+			return keepAlive;
+		}
+		return sendFile(client, lib, headers, head, keepAlive);
+	}
+
+	private void sendManifest(SocketChannel client, Release current, Map<String, String> headers, boolean head,
+			boolean keepAlive) throws IOException {
+		if (current.etag.equals(headers.get("if-none-match"))) {
+			send(client, header(304, "Not Modified", 0, null, current.etag, keepAlive), null);
+			return;
+		}
+		String header = header(200, "OK", current.manifest.length, "application/xml", current.etag, keepAlive);
+		send(client, header, head ? null : ByteBuffer.wrap(current.manifest));
+	}
+
+	private boolean sendFile(SocketChannel client, LibraryFile lib, Map<String, String> headers, boolean head,
+			boolean keepAlive) throws IOException {
+		FileChannel file;
+		try {
+			file = FileChannel.open(cacheDir.resolve(lib.file), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			sendStatus(client, 404, "Not Found", keepAlive);
+			return keepAlive;
+		}
+
+		try (FileChannel content = file) {
+			long size = content.size();
+			if (lib.size != null && size != lib.size) {
+				// Replaced by a newer version after the release was read
+				sendStatus(client, 404, "Not Found", keepAlive);
+				return keepAlive;
+			}
+
+			String etag = String.format("\"%x-%d\"", lib.checksum, size);
+			long start = 0;
+			long end = size;
+			String range = headers.get("range");
+			String ifRange = headers.get("if-range");
+			boolean partial = range != null && (ifRange == null || ifRange.equals(etag));
+			if (partial) {
+				long[] bounds = parseRange(range, size);
+				if (bounds == null) {
+					partial = false;
+				} else if (bounds[0] >= size) {
+					String header = header(416, "Range Not Satisfiable", 0, null, etag, keepAlive)
+							.replace("\r\n\r\n", String.format("\r\nContent-Range: bytes */%d\r\n\r\n", size));
+					send(client, header, null);
+					return keepAlive;
+				} else {
+					start = bounds[0];
+					end = bounds[1];
+				}
+			}
+
+			String header = partial
+					? header(206, "Partial Content", end - start, "application/octet-stream", etag, keepAlive)
+					.replace("\r\n\r\n", String.format("\r\nContent-Range: bytes %d-%d/%d\r\n\r\n", start, end - 1, size))
+					: header(200, "OK", size, "application/octet-stream", etag, keepAlive);
+			send(client, header, null);
+
+			if (!head) {
+				for (long position = start; position < end; ) {
+					long sent = content.transferTo(position, end - position, client);
+					if (sent <= 0 && !client.isOpen())
+						return false;
+					position += sent;
+				}
+				bytesSent.addAndGet(end - start);
+			}
+		}
+		return keepAlive;
+	}
+
+	/**
+	 * Parse a single <code>bytes=first-last</code>, <code>bytes=first-</code> or
+	 * <code>bytes=-suffixLength</code> range. A range that starts at or after the end of the file,
+	 * or an empty suffix, is not satisfiable and starts at or after <code>size</code>.
+	 *
+	 * @return the first and the end (exclusive) byte, or null if the range is not supported
+	 */
+	static long[] parseRange(String range, long size) {
+		if (!range.startsWith("bytes=") || range.indexOf(',') >= 0)
+			return null;
+		String spec = range.substring(6).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+			return null;
+		try {
+			if (dash == 0) {
+				long suffix = Long.parseLong(spec.substring(1).trim());
+				if (suffix < 0)
+					return null;
+				return new long[]{suffix == 0 ? size : Math.max(0, size - suffix), size};
+			}
+			long first = Long.parseLong(spec.substring(0, dash).trim());
+			String last = spec.substring(dash + 1).trim();
+			long end = last.isEmpty() ? size : Math.min(size, Long.parseLong(last) + 1);
+			if (end <= first && first < size)
+				return null;
+			return new long[]{first, end};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void sendStatus(SocketChannel client, int code, String reason, boolean keepAlive) throws IOException {
+		send(client, header(code, reason, 0, null, null, keepAlive), null);
+	}
+
+	private static String header(int code, String reason, long length, String contentType, String etag, boolean keepAlive) {
+		StringBuilder header = new StringBuilder(256);
+		header.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n");
+		header.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+		header.append("Server: fxlauncher-relay\r\n");
+		header.append("Accept-Ranges: bytes\r\n");
+		if (contentType != null)
+			header.append("Content-Type: ").append(contentType).append("\r\n");
+		if (etag != null)
+			header.append("ETag: ").append(etag).append("\r\n");
+		if (code != 304)
+			header.append("Content-Length: ").append(length).append("\r\n");
+		header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+		return header.toString();
+	}
+
+	private static void send(SocketChannel client, String header, ByteBuffer body) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1));
+		while (buffer.hasRemaining())
+			client.write(buffer);
+		if (body != null)
+			while (body.hasRemaining())
+				client.write(body);
+	}
+
+	/**
+	 * Read a request line and its headers, with lower case header names.
+	 *
+	 * @return the request line, or null when the client closed the connection
+	 */
+	private static String readRequest(InputStream input, Map<String, String> headers) throws IOException {
+		String requestLine = readLine(input);
+		// Tolerate empty lines between requests
+		while (requestLine != null && requestLine.isEmpty())
+			requestLine = readLine(input);
+		if (requestLine == null)
+			return null;
+
+		int size = requestLine.length();
+		String line;
+		while ((line = readLine(input)) != null && !line.isEmpty()) {
+			size += line.length();
+			if (size > MAX_HEADER_SIZE)
+				throw new IOException("Request header too large");
+			int colon = line.indexOf(':');
+			if (colon > 0)
+				headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+		}
+		return requestLine;
+	}
+
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder(64);
+		int c;
+		while ((c = input.read()) >= 0) {
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r')
+					line.setLength(length - 1);
+				return line.toString();
+			}
+			if (line.length() > MAX_HEADER_SIZE)
+				throw new IOException("Request line too long");
+			line.append((char) c);
+		}
+		return line.length() > 0 ? line.toString() : null;
+	}
+}
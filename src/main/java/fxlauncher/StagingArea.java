@@ -0,0 +1,218 @@
+package fxlauncher;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Directory inside the cache dir where the files of a new version are downloaded and
+ * verified before they replace the live files.
+ * <p>
+ * Activation first writes the new manifest to a journal, then moves every staged file
+ * into place and finally writes the manifest to the cache dir. If the launcher stops
+ * half way, the journal is replayed on the next start, so the cache dir always ends up
+ * holding one consistent version. Until the journal is written the live files are
+ * never touched.
+ */
+class StagingArea {
+	private static final Logger log = Logger.getLogger("StagingArea");
+
+	static final String DIRNAME = ".staging";
+	static final String BACKGROUND_DIRNAME = ".staging-background";
+	private static final String JOURNAL = "activate.journal";
+	private static final String PENDING = "pending.xml";
+
+	private final Path cacheDir;
+	private final Path dir;
+
+	StagingArea(Path cacheDir) {
+		this(cacheDir, DIRNAME);
+	}
+
+	/**
+	 * A staging area in another directory of the cache dir. Background updates download into
+	 * {@link #BACKGROUND_DIRNAME} without holding the cache lock and hand the files over with
+	 * {@link #moveTo(StagingArea, List)}.
+	 */
+	StagingArea(Path cacheDir, String dirname) {
+		this.cacheDir = cacheDir;
+		this.dir = cacheDir.resolve(dirname);
+	}
+
+	Path getDir() {
+		return dir;
+	}
+
+	Path resolve(LibraryFile lib) {
+		return dir.resolve(lib.file).toAbsolutePath();
+	}
+
+	/**
+	 * @return true if a complete and verified copy of the file is already staged
+	 */
+	boolean isStaged(LibraryFile lib) throws IOException {
+		Path staged = resolve(lib);
+		return Files.exists(staged) && lib.matches(staged);
+	}
+
+	/**
+	 * Move the staged files into the cache dir and write the manifest for the new version.
+	 */
+	void activate(FXManifest manifest, List<LibraryFile> staged) throws IOException {
+		Path journal = dir.resolve(JOURNAL);
+		if (!staged.isEmpty()) {
+			writeManifest(manifest, journal);
+			moveStagedFiles(staged);
+		}
+		writeManifest(manifest, manifest.getPath(cacheDir));
+		ManifestSnapshot.save(manifest, manifest.getPath(cacheDir));
+		Files.deleteIfExists(journal);
+		clean();
+		log.info(String.format("Activated version %s with %d updated files", manifest.ts, staged.size()));
+	}
+
+	/**
+	 * @return true if an activation was interrupted and must be completed by {@link #recover()}
+	 */
+	boolean isActivationInterrupted() {
+		return Files.exists(dir.resolve(JOURNAL));
+	}
+
+	/**
+	 * Finish an activation that was interrupted.
+	 *
+	 * @return true if an activation was completed
+	 */
+	boolean recover() {
+		Path journal = dir.resolve(JOURNAL);
+		if (!Files.exists(journal))
+			return false;
+
+		try {
+			FXManifest manifest = ManifestXml.read(journal);
+			log.info(String.format("Completing interrupted activation of version %s", manifest.ts));
+			moveStagedFiles(manifest.files);
+			writeManifest(manifest, manifest.getPath(cacheDir));
+			ManifestSnapshot.save(manifest, manifest.getPath(cacheDir));
+			Files.deleteIfExists(journal);
+			clean();
+			return true;
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Unable to complete interrupted activation", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Record that all files of the manifest are staged, so the version can be activated on the
+	 * next start. Used by background updates, which must not replace files of the running version.
+	 */
+	void savePending(FXManifest manifest) throws IOException {
+		Files.createDirectories(dir);
+		writeManifest(manifest, dir.resolve(PENDING));
+	}
+
+	/**
+	 * @return true if a background update staged a version that is not activated yet
+	 */
+	boolean hasPending() {
+		return Files.exists(dir.resolve(PENDING));
+	}
+
+	/**
+	 * @return the manifest of a version that was staged by a background update, or null
+	 */
+	FXManifest loadPending() {
+		Path pending = dir.resolve(PENDING);
+		if (!Files.exists(pending))
+			return null;
+		try {
+			return ManifestXml.read(pending);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Discarding unreadable pending update", e);
+			discardPending();
+			return null;
+		}
+	}
+
+	/**
+	 * Forget a pending update, for example because some of its staged files are no longer valid.
+	 */
+	void discardPending() {
+		try {
+			Files.deleteIfExists(dir.resolve(PENDING));
+		} catch (IOException e) {
+			log.log(Level.FINE, "Unable to remove pending update", e);
+		}
+		clean();
+	}
+
+	/**
+	 * Move the staged files into another staging area of the same cache dir. The moves keep the
+	 * attributes the checksum index recorded for the staged files.
+	 */
+	void moveTo(StagingArea other, List<LibraryFile> files) throws IOException {
+		for (LibraryFile lib : files) {
+			Path staged = resolve(lib);
+			if (!Files.exists(staged))
+				continue;
+			Path target = other.resolve(lib);
+			Files.createDirectories(target.getParent());
+			AtomicFiles.move(staged, target);
+		}
+	}
+
+	private void moveStagedFiles(List<LibraryFile> files) throws IOException {
+		for (LibraryFile lib : files) {
+			Path staged = resolve(lib);
+			if (!Files.exists(staged))
+				continue;
+			Path target = cacheDir.resolve(lib.file).toAbsolutePath();
+			Files.createDirectories(target.getParent());
+			AtomicFiles.move(staged, target);
+		}
+	}
+
+	/**
+	 * Write the manifest to a temporary file and move it over the target, so a reader never sees a
+	 * partially written manifest.
+	 */
+	static void writeManifest(FXManifest manifest, Path target) throws IOException {
+		AtomicFiles.write(target, temp -> ManifestXml.write(manifest, temp));
+	}
+
+	/**
+	 * Remove leftovers of earlier attempts. Partial downloads are kept so they can be resumed.
+	 */
+	private void clean() {
+		if (!Files.exists(dir))
+			return;
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					String name = file.getFileName().toString();
+					if (!name.endsWith(".part") && !name.endsWith(".part.info"))
+						Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
+					try (Stream<Path> entries = Files.list(directory)) {
+						if (!entries.findAny().isPresent())
+							Files.delete(directory);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			log.log(Level.FINE, "Unable to clean staging area", e);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package fxlauncher;
 
+import java.util.Locale;
+
 public class Strings {
     public static String ensureEndingSlash(String s) {
         if (s != null && !s.endsWith("/"))
@@ -7,4 +9,24 @@ public class Strings {
 
         return s;
     }
+
+    /**
+     * Parse a number of bytes with an optional <code>k</code>, <code>m</code> or <code>g</code>
+     * suffix for kilobytes, megabytes or gigabytes.
+     *
+     * @throws NumberFormatException if the value is not a number
+     */
+    static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("k"))
+            unit = 1024;
+        else if (value.endsWith("m"))
+            unit = 1024 * 1024;
+        else if (value.endsWith("g"))
+            unit = 1024 * 1024 * 1024;
+        if (unit > 1)
+            value = value.substring(0, value.length() - 1);
+        return (long) (Double.parseDouble(value) * unit);
+    }
 }
@@ -0,0 +1,143 @@
+package fxlauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens connections to the application repository for both the manifest and the
+ * library files. All connections share connect and read timeouts and the Basic
+ * authentication header, which is computed once per set of credentials.
+ * <p>
+ * Connections are kept alive and reused through the connection cache of the JDK.
+ * A connection only goes back to the cache when its response has been read
+ * completely, so error responses are drained before the error is reported. The size
+ * of the cache is set once by {@link #configureKeepAlive(String[])}.
+ */
+class Transport {
+	static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+	static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	private static volatile Transport shared;
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+	Transport(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Keep an idle connection per concurrent download alive, taken from the
+	 * <code>--download-threads=n</code> command line parameter. The JDK reads the JVM wide
+	 * <code>http.maxConnections</code> property once, when the first http connection is made, so
+	 * this is called by the main methods of the launchers before anything else. An explicit
+	 * <code>-Dhttp.maxConnections</code> is never overridden.
+	 */
+	static void configureKeepAlive(String[] args) {
+		if (System.getProperty("http.maxConnections") != null)
+			return;
+		int threads = FileDownloader.DEFAULT_THREADS;
+		for (String arg : args) {
+			if (arg.startsWith("--download-threads=")) {
+				try {
+					threads = Integer.parseInt(arg.substring("--download-threads=".length()).trim());
+				} catch (NumberFormatException ignored) {
+				}
+			}
+		}
+		// The default of the JDK is 5
+		if (threads > 5)
+			System.setProperty("http.maxConnections", String.valueOf(threads));
+	}
+
+	/**
+	 * The transport installed by the running launcher, or one with default settings when the
+	 * launcher was not used to start the application.
+	 */
+	static Transport getShared() {
+		if (shared == null) {
+			synchronized (Transport.class) {
+				if (shared == null)
+					shared = new Transport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+			}
+		}
+		return shared;
+	}
+
+	static void setShared(Transport transport) {
+		shared = transport;
+	}
+
+	/**
+	 * Create a connection with timeouts and authentication configured. The caller may add request
+	 * headers before reading the response.
+	 */
+	URLConnection connect(URI uri) throws IOException {
+		URLConnection connection = uri.toURL().openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setUseCaches(false);
+
+		if (uri.getUserInfo() != null)
+			connection.setRequestProperty("Authorization", authorizations.computeIfAbsent(uri.getUserInfo(), userInfo -> {
+				byte[] payload = userInfo.getBytes(StandardCharsets.UTF_8);
+				return String.format("Basic %s", Base64.getEncoder().encodeToString(payload));
+			}));
+
+		return connection;
+	}
+
+	/**
+	 * Read the response status of the connection. Error responses are drained so the connection can be
+	 * reused, and reported as an IOException.
+	 *
+	 * @return the response code, or 200 for non http connections
+	 */
+	int getResponseCode(URLConnection connection) throws IOException {
+		if (!(connection instanceof HttpURLConnection))
+			return HttpURLConnection.HTTP_OK;
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+		int code = http.getResponseCode();
+		if (code >= 400) {
+			drain(http.getErrorStream());
+			throw new IOException(String.format("Server returned HTTP %d for %s", code, http.getURL()));
+		}
+		if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+			drain(http.getInputStream());
+		return code;
+	}
+
+	/**
+	 * Open the content of the uri, which may also be a file uri.
+	 */
+	InputStream open(URI uri) throws IOException {
+		if ("file".equals(uri.getScheme()))
+			return Files.newInputStream(new File(uri.getPath()).toPath());
+
+		URLConnection connection = connect(uri);
+		getResponseCode(connection);
+		return connection.getInputStream();
+	}
+
+	private static void drain(InputStream input) {
+		if (input == null)
+			return;
+		try (InputStream in = input) {
+			byte[] buf = new byte[8192];
+			while (in.read(buf) > -1) ;
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -63,4 +63,18 @@ public interface UIProvider {
 	 * @param progress A number between 0 and 1
 	 */
 	void updateProgress(double progress);
+
+	/**
+	 * Called when the update/download progress is changing, with the file that is being
+	 * downloaded, the bytes done and in total, the current throughput and the estimated
+	 * remaining time. It is called at most ten times per second.
+	 *
+	 * The default implementation calls {@link #updateProgress(double)} with the completion
+	 * rate, override it to show the details.
+	 *
+	 * @param progress The state of the update
+	 */
+	default void updateProgress(DownloadProgress progress) {
+		updateProgress(progress.getProgress());
+	}
 }
@@ -0,0 +1,141 @@
+package fxlauncher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * The 64 bit xxHash of Yann Collet with seed 0, a non cryptographic hash that processes four
+ * independent lanes of 8 bytes per step and runs at memory speed on 64 bit CPUs. Input can be
+ * added in pieces of any size, the result is the same as for the content in one piece.
+ */
+class XXHash64 implements Checksum {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private final byte[] stripe = new byte[32];
+	private final ByteBuffer stripeBuffer = ByteBuffer.wrap(stripe).order(ByteOrder.LITTLE_ENDIAN);
+	private int buffered;
+	private long total;
+	private long v1, v2, v3, v4;
+
+	XXHash64() {
+		reset();
+	}
+
+	public void update(int b) {
+		stripe[buffered++] = (byte) b;
+		total++;
+		if (buffered == 32) {
+			consumeStripe();
+			buffered = 0;
+		}
+	}
+
+	public void update(byte[] b, int off, int len) {
+		update(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Add the remaining bytes of the buffer, which is read with 8 byte loads, also when it is a
+	 * memory mapped file.
+	 */
+	public void update(ByteBuffer buffer) {
+		ByteBuffer input = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		total += input.remaining();
+
+		if (buffered > 0) {
+			int fill = Math.min(32 - buffered, input.remaining());
+			input.get(stripe, buffered, fill);
+			buffered += fill;
+			if (buffered < 32) {
+				buffer.position(buffer.limit());
+				return;
+			}
+			consumeStripe();
+			buffered = 0;
+		}
+
+		long a = v1, b = v2, c = v3, d = v4;
+		while (input.remaining() >= 32) {
+			a = round(a, input.getLong());
+			b = round(b, input.getLong());
+			c = round(c, input.getLong());
+			d = round(d, input.getLong());
+		}
+		v1 = a;
+		v2 = b;
+		v3 = c;
+		v4 = d;
+
+		buffered = input.remaining();
+		input.get(stripe, 0, buffered);
+		buffer.position(buffer.limit());
+	}
+
+	private void consumeStripe() {
+		v1 = round(v1, stripeBuffer.getLong(0));
+		v2 = round(v2, stripeBuffer.getLong(8));
+		v3 = round(v3, stripeBuffer.getLong(16));
+		v4 = round(v4, stripeBuffer.getLong(24));
+	}
+
+	public long getValue() {
+		long hash;
+		if (total >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = PRIME5;
+		}
+		hash += total;
+
+		int i = 0;
+		for (; i + 8 <= buffered; i += 8) {
+			hash ^= round(0, stripeBuffer.getLong(i));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (i + 4 <= buffered) {
+			hash ^= (stripeBuffer.getInt(i) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for (; i < buffered; i++) {
+			hash ^= (stripe[i] & 0xFFL) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	public void reset() {
+		v1 = PRIME1 + PRIME2;
+		v2 = PRIME2;
+		v3 = 0;
+		v4 = -PRIME1;
+		buffered = 0;
+		total = 0;
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME1 + PRIME4;
+	}
+}
@@ -0,0 +1,114 @@
+package fxlauncher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaPatchTest {
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("fxlauncher-patch");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileDownloaderTest.delete(dir);
+	}
+
+	@Test
+	public void identicalFilesGiveASmallPatch() throws IOException {
+		byte[] base = random(1000000, 1);
+		byte[] patch = roundTrip(base, base);
+		assertTrue("Patch has " + patch.length + " bytes", patch.length < 100);
+	}
+
+	@Test
+	public void changedBytes() throws IOException {
+		byte[] base = random(1000000, 1);
+		byte[] target = base.clone();
+		for (int i = 0; i < 10; i++)
+			target[i * 99991] ^= 0x55;
+		byte[] patch = roundTrip(base, target);
+		assertTrue("Patch has " + patch.length + " bytes", patch.length < 100000);
+	}
+
+	@Test
+	public void insertedDeletedAndMovedRanges() throws IOException {
+		byte[] base = random(500000, 1);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		// Moved to the front
+		target.write(base, 400000, 50000);
+		target.write(base, 0, 100000);
+		// Inserted
+		target.write(random(3000, 2));
+		// Deleted 100000 - 150000
+		target.write(base, 150000, 250000);
+		// Changed tail shorter than a block
+		target.write(random(1000, 3));
+		byte[] patch = roundTrip(base, target.toByteArray());
+		assertTrue("Patch has " + patch.length + " bytes", patch.length < 20000);
+	}
+
+	@Test
+	public void smallAndEmptyFiles() throws IOException {
+		roundTrip(new byte[0], new byte[0]);
+		roundTrip(new byte[0], random(100, 1));
+		roundTrip(random(100, 1), new byte[0]);
+		roundTrip(random(100, 1), random(100, 2));
+		roundTrip(random(5000, 1), Arrays.copyOf(random(5000, 1), 2047));
+	}
+
+	@Test
+	public void patchForAnotherBaseIsRejected() throws IOException {
+		byte[] base = random(100000, 1);
+		byte[] target = random(100000, 2);
+		System.arraycopy(base, 0, target, 0, 50000);
+		byte[] patch = createPatch(base, target);
+		Path truncated = write("truncated", Arrays.copyOf(base, 10000));
+		try {
+			DeltaPatch.apply(truncated, new ByteArrayInputStream(patch), new ByteArrayOutputStream());
+			fail("The patch refers to data beyond the end of the base file");
+		} catch (IOException expected) {
+		}
+	}
+
+	private byte[] roundTrip(byte[] base, byte[] target) throws IOException {
+		byte[] patch = createPatch(base, target);
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		long written = DeltaPatch.apply(write("base", base), new ByteArrayInputStream(patch), result);
+		assertEquals(target.length, written);
+		assertArrayEquals(target, result.toByteArray());
+		return patch;
+	}
+
+	private byte[] createPatch(byte[] base, byte[] target) throws IOException {
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		DeltaPatch.create(write("base", base), write("target", target), patch);
+		return patch.toByteArray();
+	}
+
+	private Path write(String name, byte[] content) throws IOException {
+		return Files.write(Files.createTempFile(dir, name, null), content);
+	}
+
+	private static byte[] random(int size, long seed) {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		return content;
+	}
+}
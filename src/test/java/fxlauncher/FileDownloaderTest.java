@@ -0,0 +1,522 @@
+package fxlauncher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileDownloaderTest {
+	private static final long TIMEOUT = 10;
+
+	private Path repo;
+	private Path cacheDir;
+	private HttpServer server;
+	private final List<DownloadProgress> progress = new ArrayList<>();
+	private final LaunchReport report = new LaunchReport();
+	private RateLimiter limiter;
+
+	@Before
+	public void setUp() throws IOException {
+		repo = Files.createTempDirectory("fxlauncher-repo");
+		cacheDir = Files.createTempDirectory("fxlauncher-cache");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.stop(0);
+		delete(repo);
+		delete(cacheDir);
+	}
+
+	@Test
+	public void downloadsAllFiles() throws Exception {
+		List<LibraryFile> files = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+			files.add(serve(writeFile("lib/file-" + i + ".jar", 100000 + i, i)));
+
+		FileDownloader downloader = downloader(uri(), 3, true);
+		downloader.download(files);
+
+		for (LibraryFile lib : files)
+			assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertProgressComplete(downloader, files);
+	}
+
+	@Test
+	public void failingDownloadCancelsTheOthers() throws Exception {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch closed = new CountDownLatch(2);
+		LibraryFile slow1 = trickle(writeFile("slow1.jar", 4 * 1024 * 1024, 1), started, closed);
+		LibraryFile slow2 = trickle(writeFile("slow2.jar", 4 * 1024 * 1024, 2), started, closed);
+		LibraryFile missing = writeFile("missing.jar", 1000, 3);
+		server.createContext("/missing.jar", exchange -> {
+			await(started);
+			respond(exchange, 404, new byte[0]);
+		});
+
+		long start = System.nanoTime();
+		try {
+			downloader(uri(), 3, true).download(Arrays.asList(slow1, slow2, missing));
+			fail("The missing file must fail the download");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("404"));
+		}
+		assertTrue("The failure must not wait for the other transfers",
+				System.nanoTime() - start < TimeUnit.SECONDS.toNanos(TIMEOUT));
+		assertNoTransfersRunning();
+		assertTrue("The other transfers must be cancelled", closed.await(TIMEOUT, TimeUnit.SECONDS));
+		assertFalse(Files.exists(staged(slow1)));
+		assertFalse(Files.exists(staged(slow2)));
+	}
+
+	@Test
+	public void failingDownloadIsReportedAfterTheOthersWithoutStopOnErrors() throws Exception {
+		LibraryFile good = serve(writeFile("good.jar", 300000, 1));
+		LibraryFile missing = writeFile("missing.jar", 1000, 2);
+		server.createContext("/missing.jar", exchange -> respond(exchange, 404, new byte[0]));
+
+		try {
+			downloader(uri(), 1, false).download(Arrays.asList(missing, good));
+			fail("The missing file must fail the download");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("404"));
+		}
+		assertArrayEquals(Files.readAllBytes(repo.resolve(good.file)), Files.readAllBytes(staged(good)));
+	}
+
+	@Test
+	public void interruptCancelsTheTransfers() throws Exception {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch closed = new CountDownLatch(2);
+		LibraryFile slow1 = trickle(writeFile("slow1.jar", 4 * 1024 * 1024, 1), started, closed);
+		LibraryFile slow2 = trickle(writeFile("slow2.jar", 4 * 1024 * 1024, 2), started, closed);
+
+		Exception failure = interruptAfter(started, slow1, slow2);
+
+		assertTrue(String.valueOf(failure), failure instanceof InterruptedException);
+		assertNoTransfersRunning();
+		assertTrue("The transfers must be cancelled", closed.await(TIMEOUT, TimeUnit.SECONDS));
+		assertFalse(Files.exists(staged(slow1)));
+	}
+
+	@Test
+	public void progressIsConsistentAfterMirrorFailover() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 500000, 1);
+		byte[] corrupt = Files.readAllBytes(repo.resolve(lib.file));
+		corrupt[corrupt.length / 2] ^= 1;
+		AtomicInteger corruptRequests = new AtomicInteger();
+		server.createContext("/broken/lib.jar", exchange -> {
+			corruptRequests.incrementAndGet();
+			respond(exchange, 200, corrupt);
+		});
+		serve(lib);
+
+		FileDownloader downloader = downloader(uri("broken/"), uri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertEquals(1, corruptRequests.get());
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void progressIsConsistentAfterChunkFallback() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 4 * 1024 * 1024 + 123, 1);
+		lib.chunks = LibraryChunks.create(repo.resolve(lib.file), 256 * 1024, ChecksumAlgorithm.DEFAULT);
+		byte[] current = Files.readAllBytes(repo.resolve(lib.file));
+		current[100] ^= 1;
+		Files.write(cacheDir.resolve(lib.file), current);
+		// Ignores the range request, so the changed chunk can't be fetched
+		serve(lib);
+
+		FileDownloader downloader = downloader(uri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertEquals("download", report.getTransfers().get(0).getSource());
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void fetchesOnlyTheChangedChunks() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 4 * 1024 * 1024 + 123, 1);
+		lib.chunks = LibraryChunks.create(repo.resolve(lib.file), 256 * 1024, ChecksumAlgorithm.DEFAULT);
+		byte[] current = Files.readAllBytes(repo.resolve(lib.file));
+		current[300 * 1024] ^= 1;
+		Files.write(cacheDir.resolve(lib.file), current);
+		AtomicLong sent = serveRanges(lib);
+
+		FileDownloader downloader = downloader(uri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertEquals("chunks", report.getTransfers().get(0).getSource());
+		assertEquals(256 * 1024, sent.get());
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void progressIsConsistentAfterPatchFallback() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 500000, 1);
+		byte[] current = Files.readAllBytes(repo.resolve(lib.file));
+		current[100] ^= 1;
+		Path currentPath = Files.write(cacheDir.resolve(lib.file), current);
+		// A valid patch that creates another version of the file
+		Path other = Files.write(repo.resolve("other.jar"), Arrays.copyOf(current, 400000));
+		byte[] patch = createPatch(currentPath, other);
+		lib.patches = Arrays.asList(new LibraryPatch("lib.jar.patch", LibraryFile.checksum(currentPath, ChecksumAlgorithm.DEFAULT).getValue(),
+				(long) patch.length));
+		server.createContext("/lib.jar.patch", exchange -> respond(exchange, 200, patch));
+		serve(lib);
+
+		FileDownloader downloader = downloader(uri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertEquals("download", report.getTransfers().get(0).getSource());
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void cancelledPatchDoesNotFallBackToADownload() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 2 * 1024 * 1024, 1);
+		writeFile("current.jar", 2 * 1024 * 1024, 2);
+		Path currentPath = repo.resolve("current.jar");
+		Files.copy(currentPath, cacheDir.resolve(lib.file));
+		byte[] patch = createPatch(currentPath, repo.resolve(lib.file));
+		lib.patches = Arrays.asList(new LibraryPatch("lib.jar.patch", LibraryFile.checksum(currentPath, ChecksumAlgorithm.DEFAULT).getValue(),
+				(long) patch.length));
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch closed = new CountDownLatch(1);
+		trickle("/lib.jar.patch", patch, started, closed);
+		AtomicInteger downloads = new AtomicInteger();
+		server.createContext("/lib.jar", exchange -> {
+			downloads.incrementAndGet();
+			respond(exchange, 200, Files.readAllBytes(repo.resolve(lib.file)));
+		});
+
+		Exception failure = interruptAfter(started, lib);
+
+		assertTrue(String.valueOf(failure), failure instanceof InterruptedException);
+		assertTrue("The patch transfer must be cancelled", closed.await(TIMEOUT, TimeUnit.SECONDS));
+		assertEquals(0, downloads.get());
+	}
+
+	@Test
+	public void progressIsConsistentAfterCompressedFallback() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 500000, 1);
+		// The compressed variant of another file, it decompresses but does not verify
+		byte[] compressed = gzip(Arrays.copyOf(Files.readAllBytes(repo.resolve(lib.file)), 400000));
+		lib.compression = "gzip";
+		lib.compressedSize = (long) compressed.length;
+		server.createContext("/lib.jar.gz", exchange -> respond(exchange, 200, compressed));
+		serve(lib);
+
+		FileDownloader downloader = downloader(uri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertEquals("download", report.getTransfers().get(0).getSource());
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void cancelledCompressedDownloadDoesNotFallBackToADownload() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 2 * 1024 * 1024, 1);
+		byte[] compressed = gzip(Files.readAllBytes(repo.resolve(lib.file)));
+		lib.compression = "gzip";
+		lib.compressedSize = (long) compressed.length;
+		CountDownLatch started = new CountDownLatch(1);
+		server.createContext("/lib.jar.gz", exchange -> {
+			started.countDown();
+			respond(exchange, 200, compressed);
+		});
+		AtomicInteger downloads = new AtomicInteger();
+		server.createContext("/lib.jar", exchange -> {
+			downloads.incrementAndGet();
+			respond(exchange, 200, Files.readAllBytes(repo.resolve(lib.file)));
+		});
+		// The transfer is cancelled while it waits for the rate limit
+		limiter = new RateLimiter(100000);
+
+		Exception failure = interruptAfter(started, lib);
+
+		assertTrue(String.valueOf(failure), failure instanceof InterruptedException);
+		assertEquals(0, downloads.get());
+	}
+
+	@Test
+	public void localCopiesAreNotRateLimited() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 1024 * 1024, 1);
+		// The copy would take 15 seconds at this rate
+		limiter = new RateLimiter(65536);
+
+		FileDownloader downloader = downloader(repo.toUri(), 1, true);
+		downloader.download(Arrays.asList(lib));
+
+		assertArrayEquals(Files.readAllBytes(repo.resolve(lib.file)), Files.readAllBytes(staged(lib)));
+		assertEquals(0, limiter.getBytes());
+		assertProgressComplete(downloader, Arrays.asList(lib));
+	}
+
+	@Test
+	public void onlyNetworkTransfersCountAsDownloads() throws Exception {
+		LibraryFile remote = serve(writeFile("remote.jar", 100000, 1));
+		LibraryFile local = writeFile("local.jar", 200000, 2);
+
+		downloader(uri(), 1, true).download(Arrays.asList(remote));
+		downloader(repo.toUri(), 1, true).download(Arrays.asList(local));
+
+		assertEquals(2, report.getTransfers().size());
+		assertEquals(1, report.getFilesDownloaded());
+		assertEquals(100000, report.getBytesDownloaded());
+	}
+
+	@Test
+	public void cancelledRangeFetchDoesNotFallBackToADownload() throws Exception {
+		LibraryFile lib = writeFile("lib.jar", 2 * 1024 * 1024, 1);
+		lib.chunks = LibraryChunks.create(repo.resolve(lib.file), 256 * 1024, ChecksumAlgorithm.DEFAULT);
+		byte[] current = Files.readAllBytes(repo.resolve(lib.file));
+		// One range of four changed chunks
+		for (int i = 0; i < 4; i++)
+			current[i * 256 * 1024] ^= 1;
+		Files.write(cacheDir.resolve(lib.file), current);
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicLong sent = serveRanges(lib, started);
+		// The range is metered while it is read, the transfer is cancelled half way
+		limiter = new RateLimiter(100000);
+
+		Exception failure = interruptAfter(started, lib);
+
+		assertTrue(String.valueOf(failure), failure instanceof InterruptedException);
+		assertEquals(1024 * 1024, sent.get());
+		assertTrue(String.valueOf(limiter.getBytes()), limiter.getBytes() < 1024 * 1024);
+	}
+
+	/**
+	 * Download the files on another thread and interrupt it once the transfer started.
+	 *
+	 * @return the exception the download failed with
+	 */
+	private Exception interruptAfter(CountDownLatch started, LibraryFile... files) throws InterruptedException {
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				downloader(uri(), files.length, true).download(Arrays.asList(files));
+			} catch (Exception e) {
+				failure.set(e);
+			}
+		});
+		thread.start();
+		assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		thread.interrupt();
+		thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+		assertFalse(thread.isAlive());
+		return failure.get();
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+			output.write(content);
+		}
+		return compressed.toByteArray();
+	}
+
+	private byte[] createPatch(Path base, Path target) throws IOException {
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		DeltaPatch.create(base, target, patch);
+		return patch.toByteArray();
+	}
+
+	private FileDownloader downloader(URI uri, int threads, boolean stopOnErrors) {
+		return downloader(uri, null, threads, stopOnErrors);
+	}
+
+	private FileDownloader downloader(URI uri, URI mirror, int threads, boolean stopOnErrors) {
+		FXManifest manifest = new FXManifest();
+		manifest.uri = uri;
+		if (mirror != null)
+			manifest.mirrors = new ArrayList<>(Arrays.asList(mirror));
+		return new FileDownloader(new Transport(1000, 2000), new Mirrors(manifest, null), cacheDir,
+				ChecksumIndex.load(cacheDir), null, new StagingArea(cacheDir), threads, stopOnErrors, false, p -> {
+					synchronized (progress) {
+						progress.add(p);
+					}
+				}, limiter, report);
+	}
+
+	private void assertProgressComplete(FileDownloader downloader, List<LibraryFile> files) {
+		long total = files.stream().mapToLong(LibraryFile::getTransferSize).sum();
+		assertEquals(total, downloader.getBytesDone());
+		DownloadProgress last = progress.get(progress.size() - 1);
+		assertTrue(last.isDone());
+		assertEquals(total, last.getBytesDone());
+		assertEquals(files.size(), last.getFilesDone());
+	}
+
+	/**
+	 * The transfer threads end right after their last task, which has completed when the download returns.
+	 */
+	private static void assertNoTransfersRunning() throws InterruptedException {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (!thread.getName().startsWith("FXLauncher-Download"))
+				continue;
+			thread.join(1000);
+			assertFalse("Transfer still running after the download returned", thread.isAlive());
+		}
+	}
+
+	private URI uri() {
+		return uri("");
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/" + path);
+	}
+
+	private Path staged(LibraryFile lib) {
+		return new StagingArea(cacheDir).resolve(lib);
+	}
+
+	private LibraryFile writeFile(String name, int size, long seed) throws IOException {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		Path file = repo.resolve(name);
+		Files.createDirectories(file.getParent());
+		Files.write(file, content);
+		return new LibraryFile(repo, file);
+	}
+
+	private LibraryFile serve(LibraryFile lib) throws IOException {
+		byte[] content = Files.readAllBytes(repo.resolve(lib.file));
+		server.createContext("/" + lib.file, exchange -> respond(exchange, 200, content));
+		return lib;
+	}
+
+	/**
+	 * Serve the file with support for single <code>bytes=first-last</code> ranges.
+	 *
+	 * @return the number of bytes sent
+	 */
+	private AtomicLong serveRanges(LibraryFile lib) throws IOException {
+		return serveRanges(lib, new CountDownLatch(1));
+	}
+
+	/**
+	 * @param started counted down when the first range is requested
+	 */
+	private AtomicLong serveRanges(LibraryFile lib, CountDownLatch started) throws IOException {
+		byte[] content = Files.readAllBytes(repo.resolve(lib.file));
+		AtomicLong sent = new AtomicLong();
+		server.createContext("/" + lib.file, exchange -> {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range == null) {
+				sent.addAndGet(content.length);
+				respond(exchange, 200, content);
+				return;
+			}
+			started.countDown();
+			String[] bounds = range.substring("bytes=".length()).split("-");
+			int first = Integer.parseInt(bounds[0]);
+			int last = Integer.parseInt(bounds[1]);
+			exchange.getResponseHeaders().add("Content-Range", String.format("bytes %d-%d/%d", first, last, content.length));
+			sent.addAndGet(last + 1 - first);
+			respond(exchange, 206, Arrays.copyOfRange(content, first, last + 1));
+		});
+		return sent;
+	}
+
+	/**
+	 * Serve the file a kilobyte at a time, so the transfer is still running when it is cancelled.
+	 */
+	private LibraryFile trickle(LibraryFile lib, CountDownLatch started, CountDownLatch closed) throws IOException {
+		trickle("/" + lib.file, Files.readAllBytes(repo.resolve(lib.file)), started, closed);
+		return lib;
+	}
+
+	private void trickle(String path, byte[] content, CountDownLatch started, CountDownLatch closed) {
+		server.createContext(path, exchange -> {
+			try {
+				exchange.sendResponseHeaders(200, content.length);
+				OutputStream output = exchange.getResponseBody();
+				for (int offset = 0; offset < content.length; offset += 1024) {
+					output.write(content, offset, Math.min(1024, content.length - offset));
+					output.flush();
+					if (offset == 0)
+						started.countDown();
+					Thread.sleep(20);
+				}
+				exchange.close();
+			} catch (IOException e) {
+				closed.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+
+	private static void respond(HttpExchange exchange, int code, byte[] content) throws IOException {
+		exchange.sendResponseHeaders(code, content.length > 0 ? content.length : -1);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(content);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir))
+			return;
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
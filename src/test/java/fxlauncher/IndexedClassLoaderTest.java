@@ -0,0 +1,141 @@
+package fxlauncher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexedClassLoaderTest {
+	private static final String RESOURCE = "fxlauncher/test/where.txt";
+	private static final String CLASS_ENTRY = Marker.class.getName().replace('.', '/') + ".class";
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("fxlauncher-classindex");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileDownloaderTest.delete(dir);
+	}
+
+	@Test
+	public void unindexedDirectoryBeforeAJarComesFirst() throws Exception {
+		Path classes = directory("classes");
+		Path jar = jar("lib.jar");
+		try (IndexedClassLoader loader = loader(classes, jar)) {
+			assertEquals("classes", read(loader.findResource(RESOURCE)));
+			assertEquals(Arrays.asList("classes", "lib.jar"), readAll(loader, RESOURCE));
+			assertEquals(classes.toUri().toURL(), codeSource(loader));
+		}
+	}
+
+	@Test
+	public void jarBeforeAnUnindexedDirectoryComesFirst() throws Exception {
+		Path jar = jar("lib.jar");
+		Path classes = directory("classes");
+		try (IndexedClassLoader loader = loader(jar, classes)) {
+			assertEquals("lib.jar", read(loader.findResource(RESOURCE)));
+			assertEquals(Arrays.asList("lib.jar", "classes"), readAll(loader, RESOURCE));
+			assertEquals(jar.toUri().toURL(), codeSource(loader));
+		}
+	}
+
+	@Test
+	public void resourcesAreListedInClasspathOrder() throws Exception {
+		Path first = jar("first.jar");
+		Path classes = directory("classes");
+		Path second = jar("second.jar");
+		Path more = directory("more");
+		try (IndexedClassLoader loader = loader(first, classes, second, more)) {
+			assertEquals(Arrays.asList("first.jar", "classes", "second.jar", "more"), readAll(loader, RESOURCE));
+		}
+	}
+
+	public static class Marker {
+	}
+
+	private IndexedClassLoader loader(Path... entries) throws IOException {
+		List<Path> classpath = Arrays.asList(entries);
+		List<URL> urls = new ArrayList<>();
+		for (Path entry : classpath)
+			urls.add(entry.toUri().toURL());
+		// No parent, the marker class must come from the classpath
+		return new IndexedClassLoader(urls, ClassIndex.build(classpath), null);
+	}
+
+	private static URL codeSource(ClassLoader loader) throws ClassNotFoundException {
+		return loader.loadClass(Marker.class.getName()).getProtectionDomain().getCodeSource().getLocation();
+	}
+
+	/**
+	 * A directory with the marker class and a resource that names the directory.
+	 */
+	private Path directory(String name) throws IOException {
+		Path classes = Files.createDirectory(dir.resolve(name));
+		Path resource = classes.resolve(RESOURCE);
+		Files.createDirectories(resource.getParent());
+		Files.write(resource, name.getBytes(StandardCharsets.UTF_8));
+		Path marker = classes.resolve(CLASS_ENTRY);
+		Files.createDirectories(marker.getParent());
+		Files.write(marker, markerClass());
+		return classes;
+	}
+
+	private Path jar(String name) throws IOException {
+		Path jar = dir.resolve(name);
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+			output.putNextEntry(new JarEntry(RESOURCE));
+			output.write(name.getBytes(StandardCharsets.UTF_8));
+			output.putNextEntry(new JarEntry(CLASS_ENTRY));
+			output.write(markerClass());
+		}
+		return jar;
+	}
+
+	private static byte[] markerClass() throws IOException {
+		try (InputStream input = IndexedClassLoaderTest.class.getClassLoader().getResourceAsStream(CLASS_ENTRY)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) > -1)
+				bytes.write(buffer, 0, read);
+			return bytes.toByteArray();
+		}
+	}
+
+	private static List<String> readAll(IndexedClassLoader loader, String name) throws IOException {
+		List<String> found = new ArrayList<>();
+		for (URL url : Collections.list(loader.findResources(name)))
+			found.add(read(url));
+		return found;
+	}
+
+	private static String read(URL url) throws IOException {
+		try (InputStream input = url.openStream()) {
+			byte[] buffer = new byte[256];
+			int length = 0;
+			int read;
+			while ((read = input.read(buffer, length, buffer.length - length)) > 0)
+				length += read;
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package fxlauncher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ManifestSnapshotTest {
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("fxlauncher-snapshot");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileDownloaderTest.delete(dir);
+	}
+
+	@Test
+	public void snapshotKeepsEveryField() throws Exception {
+		FXManifest manifest = ManifestXmlTest.fullManifest();
+		Path manifestPath = dir.resolve("app.xml");
+		ManifestXml.write(manifest, manifestPath);
+		ManifestSnapshot.save(manifest, manifestPath);
+
+		ManifestSnapshot snapshot = ManifestSnapshot.load(manifestPath);
+		assertNotNull(snapshot);
+		ManifestXmlTest.assertSameFields("manifest", manifest, snapshot.manifest);
+
+		List<String> classpath = new ArrayList<>();
+		for (LibraryFile lib : manifest.files)
+			if (lib.loadForCurrentPlatform())
+				classpath.add(lib.file);
+		assertEquals(classpath, snapshot.classpath);
+	}
+
+	@Test
+	public void changedManifestInvalidatesTheSnapshot() throws Exception {
+		FXManifest manifest = ManifestXmlTest.fullManifest();
+		Path manifestPath = dir.resolve("app.xml");
+		ManifestXml.write(manifest, manifestPath);
+		ManifestSnapshot.save(manifest, manifestPath);
+
+		manifest.updateText = "Another update text";
+		ManifestXml.write(manifest, manifestPath);
+		assertNull(ManifestSnapshot.load(manifestPath));
+	}
+}
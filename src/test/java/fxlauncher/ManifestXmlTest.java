@@ -0,0 +1,186 @@
+package fxlauncher;
+
+import org.junit.Test;
+
+import javax.xml.bind.JAXB;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestXmlTest {
+	@Test
+	public void readsAManifestWrittenByJaxb() throws Exception {
+		FXManifest manifest = fullManifest();
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		JAXB.marshal(manifest, xml);
+
+		assertSameFields("manifest", manifest, ManifestXml.read(new ByteArrayInputStream(xml.toByteArray())));
+	}
+
+	@Test
+	public void writesAManifestReadByJaxb() throws Exception {
+		FXManifest manifest = fullManifest();
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		ManifestXml.write(manifest, xml);
+
+		FXManifest read = JAXB.unmarshal(new ByteArrayInputStream(xml.toByteArray()), FXManifest.class);
+		read.inheritChecksumAlgorithm();
+		assertSameFields("manifest", manifest, read);
+	}
+
+	@Test
+	public void emptyNumbersAreUnset() throws IOException {
+		FXManifest manifest = read("<Application ts=\" \">"
+				+ "<lib file=\"a.jar\" checksum=\" 5 \" size=\"\"/>"
+				+ "<downloadThreads/><verifyThreads> 3 </verifyThreads>"
+				+ "<acceptDowngrade></acceptDowngrade><stopOnUpdateErrors> true </stopOnUpdateErrors>"
+				+ "</Application>");
+		assertNull(manifest.ts);
+		assertNull(manifest.downloadThreads);
+		assertEquals(Integer.valueOf(3), manifest.verifyThreads);
+		assertEquals(Boolean.FALSE, manifest.acceptDowngrade);
+		assertEquals(Boolean.TRUE, manifest.stopOnUpdateErrors);
+		assertEquals(Long.valueOf(5), manifest.files.get(0).checksum);
+		assertNull(manifest.files.get(0).size);
+	}
+
+	@Test
+	public void unavailableChecksumAlgorithmFailsClearly() throws IOException {
+		FXManifest manifest = read("<Application ts=\"7\"><checksumAlgorithm>crc32c</checksumAlgorithm>"
+				+ "<lib file=\"a.jar\" checksum=\"5\" size=\"10\"/></Application>");
+		try {
+			manifest.checkChecksumAlgorithms();
+			assertTrue(ChecksumAlgorithm.CRC32C.isAvailable());
+		} catch (IllegalStateException e) {
+			// Java 8
+			assertFalse(ChecksumAlgorithm.CRC32C.isAvailable());
+			assertEquals("Version 7 uses the crc32c checksum algorithm for a.jar, which needs Java 9 or later", e.getMessage());
+		}
+	}
+
+	private static FXManifest read(String xml) throws IOException {
+		return ManifestXml.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * A manifest with every bound field set to a value other than its default, so a field the
+	 * reader or writer misses fails the comparison instead of matching the default on both sides.
+	 */
+	static FXManifest fullManifest() throws Exception {
+		FXManifest manifest = new FXManifest();
+		manifest.ts = 1234L;
+		manifest.uri = URI.create("http://example.com/app/");
+		manifest.launchClass = "com.example.Main";
+		manifest.updateText = "Fetching the new version";
+		manifest.updateLabelStyle = "-fx-font-size: 12;";
+		manifest.progressBarStyle = "-fx-pref-width: 300;";
+		manifest.wrapperStyle = "-fx-spacing: 5;";
+		manifest.parameters = "--name=<a & b> \"quoted\"";
+		manifest.cacheDir = "USERLIB/example";
+		manifest.acceptDowngrade = true;
+		manifest.stopOnUpdateErrors = true;
+		manifest.preloadNativeLibraries = "native1,native2";
+		manifest.whatsNewPage = "http://example.com/news.html";
+		manifest.lingeringUpdateScreen = true;
+		manifest.downloadThreads = 8;
+		manifest.verifyThreads = 2;
+		manifest.contentStore = "ALLUSERS/store";
+		manifest.backgroundUpdate = true;
+		manifest.maxDownloadRate = "2M";
+		manifest.maxBackgroundRate = "500k";
+		manifest.mirrors = Arrays.asList(URI.create("http://mirror1.example.com/app/"), URI.create("http://mirror2.example.com/app/"));
+		manifest.checksumAlgorithm = "sha256";
+
+		LibraryFile lib = new LibraryFile();
+		lib.file = "lib/app.jar";
+		lib.checksum = 42L;
+		lib.size = 1000L;
+		lib.os = OS.linux;
+		lib.compression = "gzip";
+		lib.compressedSize = 600L;
+		lib.algorithm = "crc32";
+		lib.digest = "0123456789abcdef";
+		lib.patches = new ArrayList<>(Arrays.asList(new LibraryPatch("patches/app.jar.41.patch", 41L, 100L),
+				new LibraryPatch("patches/app.jar.40.patch", 40L, 200L)));
+		lib.chunks = new LibraryChunks(512L, "1a 2b");
+		manifest.files.add(lib);
+
+		// Uses the algorithm of the manifest
+		LibraryFile other = new LibraryFile();
+		other.file = "lib/other.jar";
+		other.checksum = 7L;
+		other.size = 10L;
+		other.algorithm = "sha256";
+		manifest.files.add(other);
+
+		assertEveryFieldSet("manifest", manifest, new FXManifest());
+		assertEveryFieldSet("lib", lib, new LibraryFile());
+		assertEveryFieldSet("patch", lib.patches.get(0), new LibraryPatch());
+		assertEveryFieldSet("chunks", lib.chunks, new LibraryChunks());
+		return manifest;
+	}
+
+	private static void assertEveryFieldSet(String path, Object value, Object defaults) throws IllegalAccessException {
+		for (Field field : boundFields(value.getClass())) {
+			Object set = field.get(value);
+			assertNotNull(path + "." + field.getName() + " is not set", set);
+			if (!(set instanceof List))
+				assertNotEquals(path + "." + field.getName() + " has its default value", field.get(defaults), set);
+		}
+	}
+
+	static void assertSameFields(String path, Object expected, Object actual) throws IllegalAccessException {
+		if (expected == null || !expected.getClass().getPackage().equals(FXManifest.class.getPackage()) || expected instanceof OS) {
+			assertEquals(path, expected, actual);
+			return;
+		}
+		assertNotNull(path, actual);
+		for (Field field : boundFields(expected.getClass())) {
+			Object value = field.get(expected);
+			if (value instanceof List) {
+				List<?> expectedList = (List<?>) value;
+				List<?> actualList = (List<?>) field.get(actual);
+				assertNotNull(path + "." + field.getName(), actualList);
+				assertEquals(path + "." + field.getName(), expectedList.size(), actualList.size());
+				for (int i = 0; i < expectedList.size(); i++)
+					assertSameFields(path + "." + field.getName() + "[" + i + "]", expectedList.get(i), actualList.get(i));
+			} else {
+				assertSameFields(path + "." + field.getName(), value, field.get(actual));
+			}
+		}
+	}
+
+	/**
+	 * The fields JAXB reads and writes, those with an annotation of the binding.
+	 */
+	private static List<Field> boundFields(Class<?> type) {
+		List<Field> fields = new ArrayList<>();
+		for (Field field : type.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers()))
+				continue;
+			for (Annotation annotation : field.getAnnotations()) {
+				if (annotation.annotationType().getName().startsWith("javax.xml.bind.annotation.")) {
+					field.setAccessible(true);
+					fields.add(field);
+					break;
+				}
+			}
+		}
+		return fields;
+	}
+}
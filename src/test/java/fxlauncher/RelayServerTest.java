@@ -0,0 +1,173 @@
+package fxlauncher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RelayServerTest {
+	private Path dir;
+	private RelayServer relay;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("fxlauncher-relay");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (relay != null)
+			relay.close();
+		FileDownloaderTest.delete(dir);
+	}
+
+	@Test
+	public void parsesRanges() {
+		assertArrayEquals(new long[]{10, 21}, RelayServer.parseRange("bytes=10-20", 100));
+		assertArrayEquals(new long[]{10, 100}, RelayServer.parseRange("bytes=10-", 100));
+		assertArrayEquals(new long[]{90, 100}, RelayServer.parseRange("bytes=90-200", 100));
+		assertArrayEquals(new long[]{70, 100}, RelayServer.parseRange("bytes=-30", 100));
+		assertArrayEquals(new long[]{0, 100}, RelayServer.parseRange("bytes=-300", 100));
+	}
+
+	@Test
+	public void unsatisfiableRangesStartAfterTheFile() {
+		assertEquals(100, RelayServer.parseRange("bytes=100-", 100)[0]);
+		assertEquals(150, RelayServer.parseRange("bytes=150-200", 100)[0]);
+		assertEquals(100, RelayServer.parseRange("bytes=-0", 100)[0]);
+		assertEquals(0, RelayServer.parseRange("bytes=-10", 0)[0]);
+		assertEquals(0, RelayServer.parseRange("bytes=0-", 0)[0]);
+	}
+
+	@Test
+	public void unsupportedRangesAreIgnored() {
+		assertNull(RelayServer.parseRange("bytes=20-10", 100));
+		assertNull(RelayServer.parseRange("bytes=0-10,20-30", 100));
+		assertNull(RelayServer.parseRange("bytes=10", 100));
+		assertNull(RelayServer.parseRange("bytes=--10", 100));
+		assertNull(RelayServer.parseRange("bytes=a-", 100));
+		assertNull(RelayServer.parseRange("items=0-10", 100));
+	}
+
+	@Test
+	public void servesRequestsOnOneConnection() throws Exception {
+		byte[] content = new byte[100000];
+		new Random(1).nextBytes(content);
+		Files.write(dir.resolve("lib.jar"), content);
+		Files.write(dir.resolve("secret.txt"), "not listed".getBytes(StandardCharsets.UTF_8));
+
+		FXManifest manifest = new FXManifest();
+		manifest.ts = 1L;
+		manifest.uri = URI.create("http://repo.example.com/app/");
+		manifest.files.add(new LibraryFile(dir, dir.resolve("lib.jar")));
+
+		relay = new RelayServer(dir, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 2);
+		relay.setManifest(manifest);
+		relay.start();
+		URI uri = relay.getUri();
+		assertEquals(String.format("http://%s:%d/", InetAddress.getLoopbackAddress().getHostAddress(), relay.getAddress().getPort()),
+				uri.toString());
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), relay.getAddress().getPort())) {
+			socket.setSoTimeout(10000);
+			OutputStream output = socket.getOutputStream();
+			DataInputStream input = new DataInputStream(socket.getInputStream());
+
+			request(output, "GET /lib.jar HTTP/1.1", "Range: bytes=-1000");
+			Response response = new Response(input);
+			assertEquals(206, response.code);
+			assertEquals("bytes 99000-99999/100000", response.headers.get("content-range"));
+			assertArrayEquals(Arrays.copyOfRange(content, 99000, 100000), response.body);
+
+			request(output, "GET /lib.jar HTTP/1.1", "Range: bytes=99990-");
+			response = new Response(input);
+			assertEquals(206, response.code);
+			assertArrayEquals(Arrays.copyOfRange(content, 99990, 100000), response.body);
+
+			// The manifest names the relay, whatever the client claims to have addressed
+			request(output, "GET /app.xml HTTP/1.1", "Host: attacker.example.com");
+			response = new Response(input);
+			assertEquals(200, response.code);
+			FXManifest relayed = ManifestXml.read(new ByteArrayInputStream(response.body));
+			assertEquals(uri, relayed.uri);
+			assertEquals(Arrays.asList(manifest.uri), relayed.mirrors);
+
+			request(output, "GET /secret.txt HTTP/1.1");
+			assertEquals(404, new Response(input).code);
+
+			request(output, "GET /lib.jar HTTP/1.1", "Range: bytes=100000-");
+			response = new Response(input);
+			assertEquals(416, response.code);
+			assertEquals("bytes */100000", response.headers.get("content-range"));
+
+			request(output, "HEAD /lib.jar HTTP/1.1", "Connection: close");
+			response = new Response(input);
+			assertEquals(200, response.code);
+			assertEquals("close", response.headers.get("connection"));
+			assertEquals(-1, input.read());
+		}
+		assertEquals(6, relay.getRequests());
+	}
+
+	private static void request(OutputStream output, String requestLine, String... headers) throws IOException {
+		StringBuilder request = new StringBuilder(requestLine).append("\r\n");
+		for (String header : headers)
+			request.append(header).append("\r\n");
+		request.append("\r\n");
+		output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+		output.flush();
+	}
+
+	private static class Response {
+		final int code;
+		final Map<String, String> headers = new HashMap<>();
+		final byte[] body;
+
+		Response(DataInputStream input) throws IOException {
+			code = Integer.parseInt(readLine(input).split(" ")[1]);
+			String line;
+			while (!(line = readLine(input)).isEmpty()) {
+				int colon = line.indexOf(':');
+				headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+			}
+			// A response to HEAD has the length of the file without its content
+			boolean empty = code == 304 || "close".equals(headers.get("connection"));
+			body = new byte[empty ? 0 : Integer.parseInt(headers.get("content-length"))];
+			input.readFully(body);
+		}
+
+		private static String readLine(InputStream input) throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int c;
+			while ((c = input.read()) != '\n') {
+				if (c < 0)
+					throw new IOException("Connection closed");
+				if (c != '\r')
+					line.write(c);
+			}
+			return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+		}
+	}
+}